@@ -10,24 +10,67 @@
  *
  **/
 
+import java.io.* ;
+
 public abstract class AbstractGenerate
 {
+    /** Where trace events are written, the console unless redirected; null to validate only. */
+    AbstractTraceSink sink = new PrintStreamTraceSink( System.out ) ;
+    /** The indentation given for the next event and not yet written, or -1. */
+    private int pendingIndent = -1 ;
 
     /**
     *
-    * insertTerminal
+    * setSink
     *
     **/
 
-    public void insertTerminal( Token token ) {
-        String tt = Token.getName( token.symbol );
-        
-        if( (token.symbol == Token.identifier) || (token.symbol == Token.numberConstant) || (token.symbol == Token.stringConstant) )
-            tt += " '" + token.text + "'";
+    public void setSink( AbstractTraceSink s ) {
+        sink = s ;
+    } // end of method setSink
+
+    /**
+    *
+    * isTracing
+    *
+    **/
 
-        tt += " on line " + token.lineNumber;
+    public boolean isTracing() {
+        return sink != null ;
+    } // end of method isTracing
 
-        System.out.println( "312TOKEN " + tt );
+    /**
+    *
+    * indent
+    *
+    **/
+
+    public void indent( int depth ) {
+        // held until the event it is for, so that indentation for a terminal
+        // that turns out not to be there can be replaced when recovering
+        if( sink != null )
+            pendingIndent = depth ;
+    } // end of method indent
+
+    /** Writes the indentation held for the next event, if any. */
+    private void writeIndent() {
+        if( pendingIndent >= 0 ) {
+            sink.indent( pendingIndent );
+            pendingIndent = -1 ;
+        }
+    } // end of method writeIndent
+
+    /**
+    *
+    * insertTerminal
+    *
+    **/
+
+    public void insertTerminal( Token token ) {
+        if( sink != null ) {
+            writeIndent();
+            sink.insertTerminal( token );
+        }
     } // end of method insertTerminal
 
     /**
@@ -37,7 +80,10 @@ public abstract class AbstractGenerate
     **/
 
     public void commenceNonterminal( String name ) {
-        System.out.println( "312BEGIN " + name );
+        if( sink != null ) {
+            writeIndent();
+            sink.commenceNonterminal( name );
+        }
     } // end of method commenceNonterminal
 
     /**
@@ -47,7 +93,10 @@ public abstract class AbstractGenerate
     **/
 
     public void finishNonterminal( String name ) {
-        System.out.println( "312END " + name );
+        if( sink != null ) {
+            writeIndent();
+            sink.finishNonterminal( name );
+        }
     } // end of method finishNonterminal
 
     /**
@@ -58,9 +107,40 @@ public abstract class AbstractGenerate
 
     public void reportSuccess()
     {
-        System.out.println( "312SUCCESS" );
+        if( sink != null ) {
+            writeIndent();
+            sink.reportSuccess();
+        }
     } // end of method reportSuccess
 
+    /**
+    *
+    * flush
+    *
+    **/
+
+    public void flush() throws IOException
+    {
+        if( sink != null ) {
+            writeIndent();
+            sink.flush();
+        }
+    } // end of method flush
+
+    /**
+    *
+    * flushEvents
+    *
+    * As flush, keeping back indentation not yet followed by an event.
+    *
+    **/
+
+    public void flushEvents() throws IOException
+    {
+        if( sink != null )
+            sink.flush();
+    } // end of method flushEvents
+
 
     /** Report an error to the user. */
     public abstract void reportError( Token token, String explanatoryMessage ) throws CompilationException;
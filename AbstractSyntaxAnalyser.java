@@ -14,12 +14,18 @@ import java.io.* ;
 
 public abstract class AbstractSyntaxAnalyser
 {
-	/** The lexical analyser to process input using. */
-	LexicalAnalyser lex ;
+	/** The lexical analyser, or other source of tokens, to process input using. */
+	TokenSource lex ;
 	/** A cache of the token to be processed next. */
 	Token nextToken ;
 	/** A code generator, descendant of AbstractGenerate. */
 	Generate myGenerate = null;
+	/** Where trace output is written, the console unless redirected; null to validate only. */
+	AbstractTraceSink traceSink = new PrintStreamTraceSink( System.out );
+	/** Is a trace being written?  When not, no trace text need be prepared. */
+	boolean tracing = true;
+	/** The number of errors the last parse reported. */
+	int errorCount ;
 
 	/** Begin processing the first (top level) token.*/
 	public abstract void _statementPart_() throws IOException, CompilationException;
@@ -27,24 +33,84 @@ public abstract class AbstractSyntaxAnalyser
 	/** Accept a token based on context.  Requires implementation. */
 	public abstract void acceptTerminal(int symbol) throws IOException, CompilationException;
 
+	/** Returns the deepest nesting of non-terminals the last parse reached,
+	  for instrumentation.  Analysers that do not keep count return 0.
+
+	  @return The most non-terminals that were open at once.
+	*/
+	public int getMaxDepth()
+	{
+		return 0 ;
+	} // end of method getMaxDepth
+
+	/** Returns the number of errors the last parse reported: at most one,
+	  unless the analyser recovers from errors.
+
+	  @return The number of compilation exceptions reported.
+	*/
+	public int getErrorCount()
+	{
+		return errorCount ;
+	} // end of method getErrorCount
+
 	/** Parses the given PrintStream with this instance's LexicalAnalyser.
 		
 	  @param ps The PrintStream object to read tokens from.
+	  @return true if the source parsed without error.
 	  @throws IOException in the event that the PrintStream object can no longer read.
 	*/
-	public void parse( PrintStream ps ) throws IOException
+	public boolean parse( PrintStream ps ) throws IOException
 	{
 		myGenerate = new Generate();
+		myGenerate.setSink( traceSink );
+		tracing = myGenerate.isTracing();
+		errorCount = 0 ;
 		try {
 			nextToken = lex.getNextToken() ;
 			_statementPart_() ;
 			acceptTerminal(Token.eofSymbol) ;
 			myGenerate.reportSuccess() ;
+			return true ;
 		}
 		catch( CompilationException ex )
 		{
+			// the trace so far goes out first, in case both share a stream
+			myGenerate.flush() ;
 			ps.println( "Compilation Exception" );
 			ps.println( ex.toTraceString() );
+			errorCount++ ;
+			return false ;
+		}
+		finally
+		{
+			myGenerate.flush() ;
 		}
 	} // end of method parse
+
+	/** Parses as above, writing the trace to the given stream instead of the console.
+
+	  @param ps The PrintStream object compilation exceptions are reported to.
+	  @param traceStream The PrintStream object trace output is written to.
+	  @return true if the source parsed without error.
+	  @throws IOException in the event that the source can no longer be read.
+	*/
+	public boolean parse( PrintStream ps, PrintStream traceStream ) throws IOException
+	{
+		return parse( ps, new PrintStreamTraceSink( traceStream ) );
+	} // end of method parse
+
+	/** Parses as above, sending the trace to the given sink.
+
+	  @param ps The PrintStream object compilation exceptions are reported to.
+	  @param sink Where trace output is written, flushed before returning;
+	  or null to only validate the source, writing no trace at all.
+	  @return true if the source parsed without error.
+	  @throws IOException in the event that the source can no longer be read,
+	  or the trace can no longer be written.
+	*/
+	public boolean parse( PrintStream ps, AbstractTraceSink sink ) throws IOException
+	{
+		traceSink = sink;
+		return parse( ps );
+	} // end of method parse
 } // end of class AbstractSyntaxAnalyser
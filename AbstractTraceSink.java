@@ -0,0 +1,107 @@
+
+/**
+ *
+ * Receives the trace events of a parse and writes them out in the 312 text
+ * format.  Descendants decide where the text goes and how it is buffered.
+ *
+ **/
+
+import java.io.* ;
+
+public abstract class AbstractTraceSink
+{
+	/** Appends text to the trace. */
+	protected abstract void append(String s) ;
+
+	/** Appends a single character to the trace. */
+	protected abstract void append(char c) ;
+
+	/** Appends a number to the trace in decimal. */
+	protected void append(int i)
+	{
+		append(Integer.toString(i)) ;
+	} // end of method append
+
+	/** Ends the current line of the trace. */
+	protected void endLine()
+	{
+		append(System.lineSeparator()) ;
+	} // end of method endLine
+
+	/** Writes the indentation for an event about to be reported.
+
+	  @param depth The number of tabs to write.
+	 */
+	public void indent(int depth)
+	{
+		for (int i = 0 ; i < depth ; i++)
+			append('\t') ;
+	} // end of method indent
+
+	/** Reports a terminal accepted by the parser.
+
+	  @param token The token accepted.
+	 */
+	public void insertTerminal(Token token)
+	{
+		append("312TOKEN ") ;
+		append(Token.getName(token.symbol)) ;
+
+		if ((token.symbol == Token.identifier) || (token.symbol == Token.numberConstant) || (token.symbol == Token.stringConstant))
+		{
+			append(" '") ;
+			append(token.text) ;
+			append('\'') ;
+		}
+
+		append(" on line ") ;
+		append(token.lineNumber) ;
+		endLine() ;
+	} // end of method insertTerminal
+
+	/** Reports that the parser has started on a non-terminal.
+
+	  @param name The name of the non-terminal.
+	 */
+	public void commenceNonterminal(String name)
+	{
+		append("312BEGIN ") ;
+		append(name) ;
+		endLine() ;
+	} // end of method commenceNonterminal
+
+	/** Reports that the parser has finished a non-terminal.
+
+	  @param name The name of the non-terminal.
+	 */
+	public void finishNonterminal(String name)
+	{
+		append("312END ") ;
+		append(name) ;
+		endLine() ;
+	} // end of method finishNonterminal
+
+	/** Copies text into the trace as it stands, such as the markers written between files.
+
+	  @param text The text, with any line separators it needs.
+	 */
+	public void insertText(String text)
+	{
+		append(text) ;
+	} // end of method insertText
+
+	/** Reports that the whole source parsed successfully. */
+	public void reportSuccess()
+	{
+		append("312SUCCESS") ;
+		endLine() ;
+	} // end of method reportSuccess
+
+	/** Writes out anything still held, including indentation not yet followed by an event.
+
+	  @throws IOException if the trace could not be written, now or at an earlier event.
+	 */
+	public void flush() throws IOException
+	{
+	} // end of method flush
+} // end of class AbstractTraceSink
@@ -0,0 +1,259 @@
+
+/**
+ *
+ * Benchmarks the lexical analyser, the syntax analyser and the trace
+ * output over generated programs.  In the manner of JMH, each benchmark is
+ * warmed up for a number of timed iterations and then measured over more,
+ * reporting the mean and spread of its throughput.
+ *
+ * Usage: java AnalyserBenchmark [-statements n] [-warmup n] [-iterations n]
+ *        [-time ms] [-seed n] [-depth n] [benchmark ...]
+ *
+ **/
+
+import java.io.* ;
+import java.nio.file.* ;
+import java.util.* ;
+
+public class AnalyserBenchmark
+{
+	/** A benchmark: one run processes the whole of its input once. */
+	private static abstract class Benchmark
+	{
+		/** The name the benchmark is selected and reported by. */
+		String name ;
+		/** The size of the input one run processes, in bytes. */
+		long bytes ;
+
+		Benchmark(String n, long b)
+		{
+			name = n ;
+			bytes = b ;
+		} // end of constructor method
+
+		/** Runs the benchmark once, returning a result so the work cannot be optimised away. */
+		abstract long run() throws IOException ;
+	} // end of class Benchmark
+
+	/** Collects benchmark results so the JIT cannot discard the work. */
+	private static long blackhole ;
+
+	/* Settings, changed by command line options. */
+	private int statements = 2000 ;
+	private int warmupIterations = 5 ;
+	private int measuredIterations = 5 ;
+	private long iterationMillis = 1000 ;
+	private long seed = 312 ;
+	private int depth = 2 ;
+
+	/** Discards everything written to it. */
+	private static final PrintStream nowhere = new PrintStream(OutputStream.nullOutputStream()) ;
+
+	/** Writes text to a temporary file deleted when the JVM exits.
+
+	  @param prefix The start of the file's name.
+	  @param text The contents of the file.
+	  @return The file's name.
+	 */
+	private static String temporaryFile(String prefix, String text) throws IOException
+	{
+		File file = File.createTempFile(prefix, ".312") ;
+		file.deleteOnExit() ;
+		Files.write(file.toPath(), text.getBytes()) ;
+		return file.getPath() ;
+	} // end of method temporaryFile
+
+	/** Makes a valid program invalid half way through, where the parser is deep in context.
+
+	  @param text A valid program.
+	  @return The program with one ":=" replaced by "=".
+	 */
+	private static String breakProgram(String text)
+	{
+		int at = text.indexOf(":=", text.length() / 2) ;
+		if (at < 0)
+			at = text.indexOf(":=") ;
+		return text.substring(0, at) + "=" + text.substring(at + 2) ;
+	} // end of method breakProgram
+
+	/** Builds every benchmark over freshly generated programs.
+
+	  @return The benchmarks, in the order they run.
+	 */
+	private List<Benchmark> benchmarks() throws IOException
+	{
+		ProgramGenerator generator = new ProgramGenerator(seed) ;
+		generator.setMaxDepth(depth) ;
+		String text = generator.generate(statements) ;
+		final String valid = temporaryFile("valid", text) ;
+		final String invalid = temporaryFile("invalid", breakProgram(text)) ;
+		final long size = new File(valid).length() ;
+		final TokenBuffer tokens = TokenBuffer.readAll(new LexicalAnalyser(valid)) ;
+
+		// a benchmark measures nothing useful unless its input is what it claims to be
+		if (!new SyntaxAnalyser(valid).parse(nowhere, (AbstractTraceSink) null))
+			throw new IllegalStateException("generated program does not parse") ;
+		if (new SyntaxAnalyser(invalid).parse(nowhere, (AbstractTraceSink) null))
+			throw new IllegalStateException("broken program parses") ;
+
+		List<Benchmark> list = new ArrayList<Benchmark>() ;
+		list.add(new Benchmark("lex", size) {
+			long run() throws IOException {
+				LexicalAnalyser lex = new LexicalAnalyser(valid) ;
+				long n = 0 ;
+				while (lex.getNextToken().symbol != Token.eofSymbol)
+					n++ ;
+				return n ;
+			}
+		}) ;
+		list.add(new Benchmark("lex-fill", size) {
+			TokenBuffer buffer = new TokenBuffer() ;
+			long run() throws IOException {
+				LexicalAnalyser lex = new LexicalAnalyser(valid) ;
+				long n = 0 ;
+				int got ;
+				do
+				{
+					buffer.clear() ;
+					got = lex.fill(buffer, 4096) ;
+					n += got ;
+				}
+				while (buffer.symbol(got - 1) != Token.eofSymbol) ;
+				return n ;
+			}
+		}) ;
+		list.add(new Benchmark("parse-valid", size) {
+			long run() throws IOException {
+				return new SyntaxAnalyser(valid).parse(nowhere, (AbstractTraceSink) null) ? 1 : 0 ;
+			}
+		}) ;
+		list.add(new Benchmark("parse-invalid", size) {
+			long run() throws IOException {
+				return new SyntaxAnalyser(invalid).parse(nowhere, (AbstractTraceSink) null) ? 1 : 0 ;
+			}
+		}) ;
+		list.add(new Benchmark("parse-pipelined", size) {
+			long run() throws IOException {
+				PipelinedLexer pipe = new PipelinedLexer(new LexicalAnalyser(valid), valid) ;
+				try {
+					return new SyntaxAnalyser(pipe, valid).parse(nowhere, (AbstractTraceSink) null) ? 1 : 0 ;
+				} finally {
+					pipe.close() ;
+				}
+			}
+		}) ;
+		list.add(new Benchmark("parse-table", size) {
+			long run() throws IOException {
+				return new TableDrivenAnalyser(valid).parse(nowhere, (AbstractTraceSink) null) ? 1 : 0 ;
+			}
+		}) ;
+		list.add(new Benchmark("parse-table-tokens", size) {
+			long run() throws IOException {
+				tokens.seek(0) ;
+				return new TableDrivenAnalyser(tokens, valid).parse(nowhere, (AbstractTraceSink) null) ? 1 : 0 ;
+			}
+		}) ;
+		list.add(new Benchmark("parse-tokens", size) {
+			long run() throws IOException {
+				tokens.seek(0) ;
+				return new SyntaxAnalyser(tokens, valid).parse(nowhere, (AbstractTraceSink) null) ? 1 : 0 ;
+			}
+		}) ;
+		list.add(new Benchmark("trace-println", size) {
+			long run() throws IOException {
+				return new SyntaxAnalyser(valid).parse(nowhere, new PrintStreamTraceSink(nowhere)) ? 1 : 0 ;
+			}
+		}) ;
+		list.add(new Benchmark("trace-buffered", size) {
+			long run() throws IOException {
+				return new SyntaxAnalyser(valid).parse(nowhere, new BufferedTraceSink(OutputStream.nullOutputStream())) ? 1 : 0 ;
+			}
+		}) ;
+		list.add(new Benchmark("parse-tree", size) {
+			ParseTree tree = new ParseTree() ;
+			long run() throws IOException {
+				tree.clear() ;
+				new SyntaxAnalyser(valid).parse(nowhere, tree) ;
+				return tree.size() ;
+			}
+		}) ;
+		return list ;
+	} // end of method benchmarks
+
+	/** Runs a benchmark repeatedly for one iteration's time.
+
+	  @return The number of runs completed per second.
+	 */
+	private double iteration(Benchmark b) throws IOException
+	{
+		long start = System.nanoTime() ;
+		long end = start + iterationMillis * 1000000L ;
+		long runs = 0 ;
+		long now ;
+		do
+		{
+			blackhole += b.run() ;
+			runs++ ;
+			now = System.nanoTime() ;
+		}
+		while (now < end) ;
+		return runs * 1e9 / (now - start) ;
+	} // end of method iteration
+
+	/** Warms up and measures one benchmark, printing a line of results. */
+	private void measure(Benchmark b) throws IOException
+	{
+		for (int i = 0 ; i < warmupIterations ; i++)
+			iteration(b) ;
+
+		double[] rates = new double[measuredIterations] ;
+		double mean = 0 ;
+		for (int i = 0 ; i < rates.length ; i++)
+		{
+			rates[i] = iteration(b) ;
+			mean += rates[i] / rates.length ;
+		}
+		double variance = 0 ;
+		for (int i = 0 ; i < rates.length ; i++)
+			variance += (rates[i] - mean) * (rates[i] - mean) / Math.max(1, rates.length - 1) ;
+
+		System.out.printf("%-16s %12.2f ops/s  +- %8.2f  %10.2f MB/s%n",
+				b.name, mean, Math.sqrt(variance), mean * b.bytes / (1024.0 * 1024.0)) ;
+	} // end of method measure
+
+	/** Entry point: runs the named benchmarks, or all of them. */
+	public static void main(String[] args) throws IOException
+	{
+		AnalyserBenchmark harness = new AnalyserBenchmark() ;
+		Set<String> selected = new HashSet<String>() ;
+		for (int i = 0 ; i < args.length ; i++)
+		{
+			if (args[i].equals("-statements") && (i + 1 < args.length))
+				harness.statements = Integer.parseInt(args[++i]) ;
+			else if (args[i].equals("-warmup") && (i + 1 < args.length))
+				harness.warmupIterations = Integer.parseInt(args[++i]) ;
+			else if (args[i].equals("-iterations") && (i + 1 < args.length))
+				harness.measuredIterations = Math.max(1, Integer.parseInt(args[++i])) ;
+			else if (args[i].equals("-time") && (i + 1 < args.length))
+				harness.iterationMillis = Long.parseLong(args[++i]) ;
+			else if (args[i].equals("-seed") && (i + 1 < args.length))
+				harness.seed = Long.parseLong(args[++i]) ;
+			else if (args[i].equals("-depth") && (i + 1 < args.length))
+				harness.depth = Integer.parseInt(args[++i]) ;
+			else if (args[i].startsWith("-"))
+			{
+				System.err.println("unknown option " + args[i]) ;
+				System.exit(1) ;
+			}
+			else
+				selected.add(args[i]) ;
+		}
+
+		List<Benchmark> benchmarks = harness.benchmarks() ;
+		System.out.println("# " + harness.statements + " statements, " + benchmarks.get(0).bytes + " bytes per run") ;
+		for (Benchmark b : benchmarks)
+			if (selected.isEmpty() || selected.contains(b.name))
+				harness.measure(b) ;
+		System.out.println("# blackhole " + blackhole) ;
+	} // end of main method
+} // end of class AnalyserBenchmark
@@ -0,0 +1,173 @@
+
+/**
+ *
+ * Decodes a trace written by BinaryTraceSink, sending its events on to
+ * another sink: to a text sink, it gives back exactly the text that sink
+ * would have written had it been given the events at first hand.
+ *
+ * Usage: java BinaryTraceReader [file]   decodes to standard output.
+ *
+ **/
+
+import java.io.* ;
+import java.nio.charset.* ;
+import java.util.* ;
+
+public class BinaryTraceReader
+{
+	/** The binary trace. */
+	private InputStream in ;
+
+	/* The state of the segment being read: its strings, in the order numbered, and what deltas are taken from. */
+	private ArrayList<String> strings = new ArrayList<String>() ;
+	private int lastDepth,
+			lastLine ;
+
+	/** Creates a reader over a binary trace.
+
+	  @param is The trace, read to its end.
+	 */
+	public BinaryTraceReader(InputStream is)
+	{
+		in = (is instanceof BufferedInputStream) ? is : new BufferedInputStream(is, 1 << 16) ;
+	} // end of constructor method
+
+	/** Reads a byte that must be there.
+
+	  @throws EOFException if the trace ends part way through an event.
+	 */
+	private int readByte() throws IOException
+	{
+		int b = in.read() ;
+		if (b < 0)
+			throw new EOFException("binary trace ends part way through an event") ;
+		return b ;
+	} // end of method readByte
+
+	private int readVarint() throws IOException
+	{
+		int v = 0 ;
+		for (int shift = 0 ; ; shift += 7)
+		{
+			int b = readByte() ;
+			if (shift > 28)
+				throw new StreamCorruptedException("varint too long") ;
+			v |= (b & 0x7f) << shift ;
+			if ((b & 0x80) == 0)
+				return v ;
+		}
+	} // end of method readVarint
+
+	private int readSigned() throws IOException
+	{
+		int v = readVarint() ;
+		return (v >>> 1) ^ -(v & 1) ;
+	} // end of method readSigned
+
+	private String readBytes() throws IOException
+	{
+		byte[] bytes = new byte[readVarint()] ;
+		for (int done = 0 ; done < bytes.length ; )
+		{
+			int n = in.read(bytes, done, bytes.length - done) ;
+			if (n < 0)
+				throw new EOFException("binary trace ends part way through a string") ;
+			done += n ;
+		}
+		return new String(bytes, StandardCharsets.UTF_8) ;
+	} // end of method readBytes
+
+	private String readString() throws IOException
+	{
+		int number = readVarint() ;
+		if (number < strings.size())
+			return strings.get(number) ;
+		if (number > strings.size())
+			throw new StreamCorruptedException("string " + number + " used before it is defined") ;
+		String s = readBytes() ;
+		strings.add(s) ;
+		return s ;
+	} // end of method readString
+
+	/** Sends every event of the trace to the given sink, in order.
+
+	  @param sink Where the events go; it is not flushed.
+	  @throws IOException if the trace cannot be read or is not a binary trace.
+	 */
+	public void replay(AbstractTraceSink sink) throws IOException
+	{
+		boolean started = false ;
+		int first ;
+		while ((first = in.read()) >= 0)
+		{
+			// a header is a varint whose first byte has been read already
+			int header = first & 0x7f ;
+			for (int shift = 7 ; (first & 0x80) != 0 ; shift += 7)
+			{
+				first = readByte() ;
+				header |= (first & 0x7f) << shift ;
+			}
+			int kind = header & 7 ;
+			int indentation = header >>> 3 ;
+
+			if (kind == BinaryTraceSink.resetEvent)
+			{
+				for (int i = 0 ; i < BinaryTraceSink.magic.length ; i++)
+					if (readByte() != BinaryTraceSink.magic[i])
+						throw new StreamCorruptedException("not a binary trace, or of another version") ;
+				strings.clear() ;
+				lastDepth = 0 ;
+				lastLine = 0 ;
+				started = true ;
+				continue ;
+			}
+			if (!started)
+				throw new StreamCorruptedException("not a binary trace") ;
+
+			if (indentation > 0)
+			{
+				int v = indentation - 1 ;
+				lastDepth += (v >>> 1) ^ -(v & 1) ;
+				sink.indent(lastDepth) ;
+			}
+			switch (kind)
+			{
+				case BinaryTraceSink.terminalEvent :
+					int symbol = readVarint() ;
+					String text = readString() ;
+					lastLine += readSigned() ;
+					sink.insertTerminal(new Token(symbol, text, lastLine)) ;
+					break ;
+				case BinaryTraceSink.commenceEvent :
+					sink.commenceNonterminal(readString()) ;
+					break ;
+				case BinaryTraceSink.finishEvent :
+					sink.finishNonterminal(readString()) ;
+					break ;
+				case BinaryTraceSink.successEvent :
+					sink.reportSuccess() ;
+					break ;
+				case BinaryTraceSink.indentEvent :
+					break ;
+				case BinaryTraceSink.textEvent :
+					sink.insertText(readBytes()) ;
+					break ;
+				default :
+					throw new StreamCorruptedException("unknown event kind " + kind) ;
+			}
+		}
+	} // end of method replay
+
+	/** Entry point: decodes a binary trace file, or standard input, to standard output. */
+	public static void main(String[] args) throws IOException
+	{
+		InputStream is = (args.length > 0) ? new FileInputStream(args[0]) : System.in ;
+		BufferedTraceSink sink = new BufferedTraceSink(System.out) ;
+		try {
+			new BinaryTraceReader(is).replay(sink) ;
+		} finally {
+			sink.flush() ;
+			is.close() ;
+		}
+	} // end of main method
+} // end of class BinaryTraceReader
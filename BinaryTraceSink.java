@@ -0,0 +1,203 @@
+
+/**
+ *
+ * Writes the trace in a compact binary form instead of text, for traces
+ * kept in bulk.  BinaryTraceReader turns it back into exactly the text the
+ * other sinks would have written.
+ *
+ * The trace is a sequence of segments, each started by a reset event and
+ * decodable on its own, so the output of several sinks can be joined end
+ * to end.  Every event is a varint header, kind in the low three bits and
+ * above them 0 if no indentation came before the event, or else one more
+ * than the zig-zag encoded change in indentation.  Texts and non-terminal
+ * names are written once per segment and referred to by number after.
+ *
+ **/
+
+import java.io.* ;
+import java.nio.charset.* ;
+import java.util.* ;
+
+public class BinaryTraceSink extends AbstractTraceSink
+{
+	/* The kinds of event, shared with BinaryTraceReader. */
+	static final int terminalEvent = 0,
+			commenceEvent = 1,
+			finishEvent = 2,
+			successEvent = 3,
+			indentEvent = 4,
+			textEvent = 5,
+			resetEvent = 6 ;
+	/** What follows a reset event's header, marking the start of a segment. */
+	static final byte[] magic = { '3', '1', '2', 'T', 1 } ;
+
+	/** The stream the trace is written to. */
+	private OutputStream out ;
+	/** Bytes not yet written. */
+	private byte[] buffer = new byte[1 << 16] ;
+	private int count ;
+	/** The first write failure, reported at the next flush. */
+	private IOException failure ;
+
+	/** The number each string has been given in this segment. */
+	private HashMap<String, Integer> strings = new HashMap<String, Integer>() ;
+	/** The indentation given and not yet written, or -1. */
+	private int pendingDepth = -1 ;
+	/* What deltas are taken from. */
+	private int lastDepth,
+			lastLine ;
+
+	/** Creates a sink, starting a segment.
+
+	  @param os The stream to write the trace to.
+	 */
+	public BinaryTraceSink(OutputStream os)
+	{
+		out = os ;
+		writeVarint(resetEvent) ;
+		for (int i = 0 ; i < magic.length ; i++)
+			writeByte(magic[i]) ;
+	} // end of constructor method
+
+	/** Writes out the buffer, keeping any failure for flush() to report. */
+	private void drain()
+	{
+		try {
+			out.write(buffer, 0, count) ;
+		} catch (IOException e) {
+			if (failure == null)
+				failure = e ;
+		}
+		count = 0 ;
+	} // end of method drain
+
+	private void writeByte(int b)
+	{
+		if (count == buffer.length)
+			drain() ;
+		buffer[count++] = (byte) b ;
+	} // end of method writeByte
+
+	/** Writes a non-negative number seven bits at a time, low bits first. */
+	private void writeVarint(int v)
+	{
+		while ((v & ~0x7f) != 0)
+		{
+			writeByte((v & 0x7f) | 0x80) ;
+			v >>>= 7 ;
+		}
+		writeByte(v) ;
+	} // end of method writeVarint
+
+	/** Writes a number that may be negative, small either way, in few bytes. */
+	private void writeSigned(int v)
+	{
+		writeVarint((v << 1) ^ (v >> 31)) ;
+	} // end of method writeSigned
+
+	/** Writes a string in full the first time and by its number after. */
+	private void writeString(String s)
+	{
+		Integer number = strings.get(s) ;
+		if (number != null)
+		{
+			writeVarint(number) ;
+			return ;
+		}
+		writeVarint(strings.size()) ;
+		strings.put(s, strings.size()) ;
+		writeBytes(s) ;
+	} // end of method writeString
+
+	/** Writes a string's length and UTF-8 bytes. */
+	private void writeBytes(String s)
+	{
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8) ;
+		writeVarint(bytes.length) ;
+		for (int i = 0 ; i < bytes.length ; i++)
+			writeByte(bytes[i]) ;
+	} // end of method writeBytes
+
+	/** Writes an event's header, carrying any indentation given before it. */
+	private void writeHeader(int kind)
+	{
+		int indentation = 0 ;
+		if (pendingDepth >= 0)
+		{
+			int delta = pendingDepth - lastDepth ;
+			indentation = ((delta << 1) ^ (delta >> 31)) + 1 ;
+			lastDepth = pendingDepth ;
+			pendingDepth = -1 ;
+		}
+		writeVarint(kind | (indentation << 3)) ;
+	} // end of method writeHeader
+
+	protected void append(String s)
+	{
+		writeHeader(textEvent) ;
+		writeBytes(s) ;
+	} // end of method append
+
+	protected void append(char c)
+	{
+		append(String.valueOf(c)) ;
+	} // end of method append
+
+	public void indent(int depth)
+	{
+		// two indentations in a row are both written, the first as an event of its own
+		if (pendingDepth >= 0)
+			writeHeader(indentEvent) ;
+		pendingDepth = depth ;
+	} // end of method indent
+
+	public void insertTerminal(Token token)
+	{
+		writeHeader(terminalEvent) ;
+		writeVarint(token.symbol) ;
+		writeString(token.text) ;
+		writeSigned(token.lineNumber - lastLine) ;
+		lastLine = token.lineNumber ;
+	} // end of method insertTerminal
+
+	public void commenceNonterminal(String name)
+	{
+		writeHeader(commenceEvent) ;
+		writeString(name) ;
+	} // end of method commenceNonterminal
+
+	public void finishNonterminal(String name)
+	{
+		writeHeader(finishEvent) ;
+		writeString(name) ;
+	} // end of method finishNonterminal
+
+	public void reportSuccess()
+	{
+		writeHeader(successEvent) ;
+	} // end of method reportSuccess
+
+	/** Writes out everything held, including indentation not yet followed
+	  by an event, which is written as an event of its own.
+
+	  @throws IOException if the trace could not be written, now or at an earlier event.
+	 */
+	public void flush() throws IOException
+	{
+		if (pendingDepth >= 0)
+			writeHeader(indentEvent) ;
+		drain() ;
+		try {
+			out.flush() ;
+		} catch (IOException e) {
+			if (failure == null)
+				failure = e ;
+		}
+		if (failure != null)
+		{
+			IOException e = failure ;
+			failure = null ;
+			throw e ;
+		}
+	} // end of method flush
+} // end of class BinaryTraceSink
@@ -0,0 +1,118 @@
+
+/**
+ *
+ * Collects the trace in a large character buffer and writes it to an
+ * OutputStream in bulk, in the platform's default encoding.
+ *
+ **/
+
+import java.io.* ;
+
+public class BufferedTraceSink extends AbstractTraceSink
+{
+	/** The buffer size used unless another is given. */
+	public static final int defaultCapacity = 1 << 16 ;
+
+	/** Encodes the buffer onto the underlying stream. */
+	private Writer out ;
+	/** Characters not yet written. */
+	private char[] buffer ;
+	private int count ;
+	/** The line separator, as characters. */
+	private char[] separator = System.lineSeparator().toCharArray() ;
+	/** The first write failure, reported at the next flush. */
+	private IOException failure ;
+
+	/** Creates a sink buffering the given number of characters.
+
+	  @param os The stream to write the trace to.
+	  @param capacity The number of characters held before writing.
+	 */
+	public BufferedTraceSink(OutputStream os, int capacity)
+	{
+		out = new OutputStreamWriter(os) ;
+		buffer = new char[Math.max(capacity, 64)] ;
+	} // end of constructor method
+
+	/** Creates a sink with the default buffer size.
+
+	  @param os The stream to write the trace to.
+	 */
+	public BufferedTraceSink(OutputStream os)
+	{
+		this(os, defaultCapacity) ;
+	} // end of constructor method
+
+	/** Writes out the buffer, keeping any failure for flush() to report. */
+	private void drain()
+	{
+		try {
+			out.write(buffer, 0, count) ;
+		} catch (IOException e) {
+			if (failure == null)
+				failure = e ;
+		}
+		count = 0 ;
+	} // end of method drain
+
+	protected void append(String s)
+	{
+		int length = s.length() ;
+		for (int done = 0 ; done < length ; )
+		{
+			if (count == buffer.length)
+				drain() ;
+			int n = Math.min(length - done, buffer.length - count) ;
+			s.getChars(done, done + n, buffer, count) ;
+			count += n ;
+			done += n ;
+		}
+	} // end of method append
+
+	protected void append(char c)
+	{
+		if (count == buffer.length)
+			drain() ;
+		buffer[count++] = c ;
+	} // end of method append
+
+	protected void append(int i)
+	{
+		if (i < 0)
+		{
+			append(Integer.toString(i)) ;
+			return ;
+		}
+		if (count + 10 > buffer.length)
+			drain() ;
+		int digits = 1 ;
+		for (int v = i / 10 ; v > 0 ; v /= 10)
+			digits++ ;
+		for (int p = count + digits - 1 ; p >= count ; p--, i /= 10)
+			buffer[p] = (char) ('0' + (i % 10)) ;
+		count += digits ;
+	} // end of method append
+
+	protected void endLine()
+	{
+		for (int i = 0 ; i < separator.length ; i++)
+			append(separator[i]) ;
+	} // end of method endLine
+
+	public void flush() throws IOException
+	{
+		drain() ;
+		try {
+			out.flush() ;
+		} catch (IOException e) {
+			if (failure == null)
+				failure = e ;
+		}
+		if (failure != null)
+		{
+			IOException e = failure ;
+			failure = null ;
+			throw e ;
+		}
+	} // end of method flush
+} // end of class BufferedTraceSink
@@ -0,0 +1,78 @@
+
+/**
+ *
+ * Finds the end of runs of bytes the lexer treats alike, so that it can
+ * step over blanks, comments, words and numbers in a memory-mapped source
+ * in bulk rather than decoding one character at a time.  Only ASCII bytes
+ * are ever matched, so a run never ends part way through a character in
+ * UTF-8, ISO-8859-1 or US-ASCII; the lexer carries on one character at a
+ * time from wherever a run ends.
+ *
+ * This class tests one byte at a time.  VectorScanner, built from the
+ * vector directory where the JDK has the Vector API, tests many at once;
+ * forPlatform() picks it when it has been built and the JVM can run it.
+ *
+ **/
+
+import java.nio.* ;
+
+public class ByteScanner
+{
+	/** Returns the fastest scanner the JVM can run.
+
+	  @return A VectorScanner where it is on the class path and the
+	  jdk.incubator.vector module is present, a ByteScanner otherwise.
+	 */
+	public static ByteScanner forPlatform()
+	{
+		try {
+			return (ByteScanner) Class.forName("VectorScanner").getDeclaredConstructor().newInstance() ;
+		} catch (ReflectiveOperationException e) {
+			return new ByteScanner() ;
+		} catch (LinkageError e) {
+			// built, but run without --add-modules jdk.incubator.vector
+			return new ByteScanner() ;
+		}
+	} // end of method forPlatform
+
+	/** @return The index of the first byte from from to to-1 that is not a space or tab, or to. */
+	public int skipBlanks(ByteBuffer bytes, int from, int to)
+	{
+		int i = from ;
+		while ((i < to) && ((bytes.get(i) == ' ') || (bytes.get(i) == '\t')))
+			i++ ;
+		return i ;
+	} // end of method skipBlanks
+
+	/** @return The index of the first line feed or carriage return from from to to-1, or to. */
+	public int findLineEnd(ByteBuffer bytes, int from, int to)
+	{
+		int i = from ;
+		while ((i < to) && (bytes.get(i) != '\n') && (bytes.get(i) != '\r'))
+			i++ ;
+		return i ;
+	} // end of method findLineEnd
+
+	/** @return The index of the first byte from from to to-1 that is not an ASCII letter or digit, or to. */
+	public int spanWord(ByteBuffer bytes, int from, int to)
+	{
+		int i = from ;
+		while (i < to)
+		{
+			int b = bytes.get(i) | 0x20 ;
+			if (((b < 'a') || (b > 'z')) && ((bytes.get(i) < '0') || (bytes.get(i) > '9')))
+				break ;
+			i++ ;
+		}
+		return i ;
+	} // end of method spanWord
+
+	/** @return The index of the first byte from from to to-1 that is not an ASCII digit, or to. */
+	public int spanDigits(ByteBuffer bytes, int from, int to)
+	{
+		int i = from ;
+		while ((i < to) && (bytes.get(i) >= '0') && (bytes.get(i) <= '9'))
+			i++ ;
+		return i ;
+	} // end of method spanDigits
+} // end of class ByteScanner
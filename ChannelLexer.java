@@ -0,0 +1,114 @@
+
+/**
+ *
+ * Lexes a source read in chunks from a channel or stream, such as a socket,
+ * as it arrives, so that no temporary file is needed and parsing can start
+ * before the whole source has been received.
+ *
+ **/
+
+import java.io.* ;
+import java.nio.* ;
+import java.nio.channels.* ;
+import java.nio.charset.* ;
+
+public class ChannelLexer implements TokenSource
+{
+	/** The size of each read from the source. */
+	private static final int chunkSize = 1 << 16 ;
+
+	/** Where the source comes from. */
+	private ReadableByteChannel source ;
+	/** Scans the bytes pushed to it. */
+	private LexicalAnalyser lex ;
+	/** The chunk most recently read. */
+	private ByteBuffer chunk = ByteBuffer.allocate(chunkSize) ;
+
+	/** Creates a lexer over a channel in the default charset.
+
+	  @param source The channel the source is read from; it is closed once exhausted.
+	 */
+	public ChannelLexer(ReadableByteChannel source)
+	{
+		this(source, Charset.defaultCharset()) ;
+	} // end of constructor method
+
+	/** Creates a lexer over a channel.
+
+	  @param source The channel the source is read from; it is closed once exhausted.
+	  @param cs The charset the source is written in: UTF-8, ISO-8859-1 or US-ASCII.
+	 */
+	public ChannelLexer(ReadableByteChannel source, Charset cs)
+	{
+		this.source = source ;
+		lex = new LexicalAnalyser(cs) ;
+	} // end of constructor method
+
+	/** Creates a lexer over a stream in the default charset.
+
+	  @param source The stream the source is read from; it is closed once exhausted.
+	 */
+	public ChannelLexer(InputStream source)
+	{
+		this(Channels.newChannel(source)) ;
+	} // end of constructor method
+
+	/** Returns the next token, reading from the source only as far as is
+	  needed to complete it.  The channel should be a blocking one; a
+	  non-blocking source is better pushed to a LexicalAnalyser directly.
+
+	  @throws IOException in the event that the source cannot be read.
+	  @return the next token.
+	 */
+	public Token getNextToken() throws IOException
+	{
+		Token t = lex.getNextToken() ;
+		while (t == null)
+		{
+			readChunk() ;
+			t = lex.getNextToken() ;
+		}
+		return t ;
+	} // end of method getNextToken
+
+	/** Scans tokens into the given buffer until it holds the given number
+	  more or the end of the source is reached.
+
+	  @param buffer The buffer to append tokens to.
+	  @param max The most tokens to scan.
+	  @return The number of tokens appended; fewer than max only at EOF.
+	  @throws IOException in the event that the source cannot be read.
+	 */
+	public int fill(TokenBuffer buffer, int max) throws IOException
+	{
+		int n = lex.fill(buffer, max) ;
+		while ((n < max) && ((n == 0) || (buffer.symbol(buffer.size() - 1) != Token.eofSymbol)))
+		{
+			readChunk() ;
+			n += lex.fill(buffer, max - n) ;
+		}
+		return n ;
+	} // end of method fill
+
+	/** Pushes the next chunk of the source to the lexer, or tells it the
+	  source is finished.
+
+	  @throws IOException in the event that the source cannot be read.
+	 */
+	private void readChunk() throws IOException
+	{
+		chunk.clear() ;
+		int n ;
+		do
+			n = source.read(chunk) ;
+		while (n == 0) ;
+		if (n < 0)
+		{
+			source.close() ;
+			lex.finish() ;
+			return ;
+		}
+		chunk.flip() ;
+		lex.push(chunk) ;
+	} // end of method readChunk
+} // end of class ChannelLexer
@@ -0,0 +1,128 @@
+
+/**
+ *
+ * Collects the trace in a direct ByteBuffer and writes it to a channel,
+ * typically a FileChannel, in bulk.  ASCII text is copied straight into
+ * the buffer; anything else is encoded in the platform's default encoding.
+ *
+ **/
+
+import java.io.* ;
+import java.nio.* ;
+import java.nio.channels.* ;
+import java.nio.charset.* ;
+
+public class ChannelTraceSink extends AbstractTraceSink
+{
+	/** The channel written to. */
+	private WritableByteChannel channel ;
+	/** Bytes not yet written. */
+	private ByteBuffer buffer ;
+	/** The line separator, as bytes. */
+	private byte[] separator = System.lineSeparator().getBytes(StandardCharsets.US_ASCII) ;
+	/** The first write failure, reported at the next flush. */
+	private IOException failure ;
+
+	/** Creates a sink with a direct buffer of the given size.
+
+	  @param ch The channel to write the trace to.
+	  @param capacity The number of bytes held before writing.
+	 */
+	public ChannelTraceSink(WritableByteChannel ch, int capacity)
+	{
+		channel = ch ;
+		buffer = ByteBuffer.allocateDirect(Math.max(capacity, 64)) ;
+	} // end of constructor method
+
+	/** Creates a sink with the default buffer size.
+
+	  @param ch The channel to write the trace to.
+	 */
+	public ChannelTraceSink(WritableByteChannel ch)
+	{
+		this(ch, BufferedTraceSink.defaultCapacity) ;
+	} // end of constructor method
+
+	/** Writes out the buffer, keeping any failure for flush() to report. */
+	private void drain()
+	{
+		buffer.flip() ;
+		try {
+			while (buffer.hasRemaining())
+				channel.write(buffer) ;
+		} catch (IOException e) {
+			if (failure == null)
+				failure = e ;
+		}
+		buffer.clear() ;
+	} // end of method drain
+
+	/** Appends raw bytes, draining the buffer as often as needed. */
+	private void appendBytes(byte[] b)
+	{
+		for (int done = 0 ; done < b.length ; )
+		{
+			if (!buffer.hasRemaining())
+				drain() ;
+			int n = Math.min(b.length - done, buffer.remaining()) ;
+			buffer.put(b, done, n) ;
+			done += n ;
+		}
+	} // end of method appendBytes
+
+	protected void append(String s)
+	{
+		int length = s.length() ;
+		for (int i = 0 ; i < length ; i++)
+			if (s.charAt(i) >= 0x80)
+			{
+				appendBytes(s.getBytes()) ;
+				return ;
+			}
+
+		for (int i = 0 ; i < length ; i++)
+		{
+			if (!buffer.hasRemaining())
+				drain() ;
+			buffer.put((byte) s.charAt(i)) ;
+		}
+	} // end of method append
+
+	protected void append(char c)
+	{
+		if (c >= 0x80)
+		{
+			appendBytes(String.valueOf(c).getBytes()) ;
+			return ;
+		}
+		if (!buffer.hasRemaining())
+			drain() ;
+		buffer.put((byte) c) ;
+	} // end of method append
+
+	protected void endLine()
+	{
+		appendBytes(separator) ;
+	} // end of method endLine
+
+	/** Copies text already encoded into the trace as it stands, such as a
+	  trace buffered elsewhere.
+
+	  @param b The bytes of the text.
+	 */
+	public void insertBytes(byte[] b)
+	{
+		appendBytes(b) ;
+	} // end of method insertBytes
+
+	public void flush() throws IOException
+	{
+		drain() ;
+		if (failure != null)
+		{
+			IOException e = failure ;
+			failure = null ;
+			throw e ;
+		}
+	} // end of method flush
+} // end of class ChannelTraceSink
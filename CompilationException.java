@@ -12,18 +12,22 @@
 
 public class CompilationException extends Exception
 {
-	private static final int MAX_TRACE_DEPTH = 20;
+	// The most causes toTraceString() reports.
+	static final int MAX_TRACE_DEPTH = 20;
+
+	// Only the messages are ever reported, so no stack trace is captured:
+	// a syntax error can unwind through hundreds of non-terminals.
 
 	public CompilationException( String message ) {
-		super( message );
+		super( message, null, false, false );
 	}
 
 	public CompilationException( String message, CompilationException cause ) {
-		super( message, cause );
+		super( message, cause, false, false );
 	}
 
 	public String toTraceString() {
-		StringBuffer buffer = new StringBuffer();
+		StringBuilder buffer = new StringBuilder( 128 * MAX_TRACE_DEPTH );
 		Throwable err = this;
 		int maxDepth = MAX_TRACE_DEPTH;
 		while( err != null && maxDepth-- > 0 ) {
@@ -11,11 +11,84 @@
  **/
 
 import java.io.* ;
+import java.lang.reflect.* ;
+import java.nio.* ;
+import java.nio.channels.* ;
+import java.nio.charset.* ;
+import java.nio.file.* ;
+import java.util.* ;
+import java.util.concurrent.* ;
 
 public class Compile {
 
 	public static String fileName;
 
+	/** Number of files analysed at once; 1 keeps the original sequential run. */
+	private int workers = 1;
+
+	/** Files in flight at once, each on a thread of its own; 0 for none. */
+	private int concurrency = 0;
+
+	/** Lets one file per processor parse at once, however many are being read. */
+	private Semaphore processors = new Semaphore( Runtime.getRuntime().availableProcessors() );
+
+	/** Only check syntax, writing no trace: res.txt, the 312 markers and 312SUCCESS for each file that parses. */
+	private boolean validateOnly = false;
+
+	/** Where the console output goes as a binary trace instead, or null for text on the console. */
+	private String binaryFile = null;
+	private OutputStream binary = null;
+
+	/** Where the console output goes as text instead, written in bulk through a FileChannel, or null for the console. */
+	private String traceFile = null;
+	private FileChannel traceChannel = null;
+	private ChannelTraceSink traceSink = null;
+
+	/** Report every error in a file, recovering from each, rather than only the first. */
+	private boolean recover = false;
+
+	/** Parse with the table-driven LL(1) engine instead of the recursive descent one. */
+	private boolean tableDriven = false;
+
+	/** Lex each file on a thread of its own, ahead of its parser. */
+	private boolean pipelined = false;
+
+	/** Lex each file in chunks, several at once, on the common fork/join pool. */
+	private boolean chunked = false;
+
+	/** Threads each file's statements are parsed on at once; 0 parses each file on one thread. */
+	private int split = 0;
+	private ExecutorService splitPool = null;
+
+	/** Where results are kept between runs, and the most bytes of them kept; null for no cache. */
+	private String cacheDir = null;
+	private long cacheBytes = ResultCache.defaultMaxBytes;
+	private ResultCache cache = null;
+	/** The options that change a file's result, which its cached result is kept under. */
+	private String cacheOptions;
+
+	/** Where the statistics summary is written, or null if none are gathered. */
+	private String statsFile = null;
+	private CompileStatistics stats = null;
+
+	/** Where the programs are read from: prefix0, prefix1, ... */
+	private String prefix = "Programs Folder" + File.separator + "program";
+
+	/** How many finished files each worker may run ahead of the output. */
+	private static final int LOOKAHEAD = 4;
+
+	/**
+	 *
+	 * Holds the buffered trace and error report of one analysed file.
+	 *
+	 **/
+
+	private static class Result {
+		byte[] trace;
+		byte[] errors;
+		CompileStatistics.Measurement measurement;
+	}
+
 	/**
 	 *
 	 * main
@@ -23,10 +96,32 @@ public class Compile {
 	 **/
 
 	private void go() throws IOException {
-		String prefix = "Programs Folder" + File.separator + "program";
 		int fileNumber = -1;
 		int exitFlag = 0;
-		System.out.println( "312START" );
+		if( binaryFile != null )
+			binary = new BufferedOutputStream( new FileOutputStream(binaryFile), 1 << 16 );
+		if( traceFile != null ) {
+			traceChannel = FileChannel.open( Paths.get(traceFile), StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING );
+			traceSink = new ChannelTraceSink( traceChannel );
+		}
+		if( split > 0 )
+			splitPool = Executors.newFixedThreadPool( split );
+		if( cacheDir != null ) {
+			// the cache is only a shortcut, so without one every file is analysed
+			try {
+				cache = new ResultCache( cacheDir, cacheBytes );
+			} catch( IOException e ) {
+				System.err.println( "not caching results: " + e.getMessage() );
+			}
+			// the engine, lexer and threads do not change the output, so results are shared between them
+			cacheOptions = (validateOnly ? "validate" : (binary != null) ? "binary" : "text") + (recover ? " recover" : "");
+		}
+		if( statsFile != null ) {
+			stats = new CompileStatistics( true );
+			stats.register( "Compile:type=Statistics" );
+		}
+		say( "312START" );
 		PrintStream out = null;
 		String outputFile = new String( "res.txt" );
 		boolean goon = true;
@@ -38,27 +133,482 @@ public class Compile {
 			System.exit(0);
 		}
 
-		while( goon ) {
+		// the trace is written in bulk, flushed at the end of each file
+		AbstractTraceSink console = validateOnly ? null : (traceSink != null) ? traceSink : new BufferedTraceSink( System.out );
+
+		if( concurrency > 0 )
+			goParallel( prefix, out, newThreadPerFileExecutor(), concurrency );
+		else if( workers > 1 )
+			goParallel( prefix, out, Executors.newFixedThreadPool( workers ), workers * LOOKAHEAD );
+		else while( goon ) {
 			fileNumber++ ;
 			fileName = prefix + fileNumber;
 			goon = ((new File(fileName)).exists());
 			if( goon ) {
-				System.out.println();
-				System.out.println( "312FILE " + fileName );
+				say( "" );
+				say( "312FILE " + fileName );
 
-				SyntaxAnalyser syn = new SyntaxAnalyser(fileName) ;
-				syn.parse( out ) ;
-			} else System.out.println(fileName+" does not exist");
+				if( cache != null ) {
+					// buffered as a worker's would be, so that it can be kept
+					write( analyse( fileName ), out );
+					continue;
+				}
+				CompileStatistics.Measurement m = null;
+				if( stats != null ) {
+					m = new CompileStatistics.Measurement( fileName, new File(fileName).length() );
+					m.start();
+				}
+				// measured as the parser sees them, so waiting on the lexer counts as lexing
+				PipelinedLexer pipe = null;
+				TokenSource tokens = null;
+				if( m != null || pipelined || chunked || tableDriven || recover || split > 0 ) {
+					tokens = lexer( fileName, m );
+					if( pipelined )
+						tokens = pipe = new PipelinedLexer( tokens, fileName );
+					if( m != null )
+						tokens = m.measure( tokens );
+				}
+				AbstractSyntaxAnalyser syn = (tokens != null) ? analyser( tokens, fileName ) : new SyntaxAnalyser( fileName );
+				// each file's binary trace is a segment of its own, as in a parallel run
+				if( binary != null && !validateOnly )
+					console = new BinaryTraceSink( (m != null) ? m.measure(binary) : binary );
+				// a trace file is written as it is parsed, so the time spent writing it counts as parsing
+				else if( m != null && !validateOnly && traceSink == null )
+					console = new BufferedTraceSink( m.measure(System.out) );
+				boolean parsed;
+				try {
+					parsed = syn.parse( out, console ) ;
+				} finally {
+					if( pipe != null )
+						pipe.close();
+				}
+				if( validateOnly && parsed ) {
+					if( traceSink != null )
+						traceSink.reportSuccess();
+					else
+						reportSuccess( (binary != null) ? binary : System.out );
+				}
+				if( m != null ) {
+					m.finish( syn, parsed );
+					stats.add( m );
+				}
+			} else say(fileName+" does not exist");
 		}
 
-		System.out.println() ;
-		System.out.println("312FINISH") ;
+		say( "" ) ;
+		say("312FINISH") ;
 		out.flush();out.close();
+		if( binary != null )
+			binary.close();
+		if( traceSink != null ) {
+			traceSink.flush();
+			traceChannel.close();
+		}
+		if( stats != null )
+			stats.writeSummary( statsFile );
 		System.exit(exitFlag) ;
 	} // end of main method
 
+	/**
+	 *
+	 * goParallel
+	 *
+	 * Analyses the programs on a pool of workers, each file writing its trace
+	 * and errors to its own buffer.  Buffers are copied out strictly in file
+	 * number order, so the output matches the sequential run byte for byte.
+	 * At most window files are in flight ahead of the output.
+	 *
+	 **/
+
+	private void goParallel( String prefix, PrintStream out, ExecutorService pool, int window ) throws IOException {
+		ArrayDeque<Future<Result>> pending = new ArrayDeque<Future<Result>>();
+		int submitted = 0;
+		boolean more = true;
+
+		try {
+			while( more || !pending.isEmpty() ) {
+				// keep a bounded window of files in flight ahead of the output
+				while( more && pending.size() < window ) {
+					final String name = prefix + submitted;
+					more = (new File(name)).exists();
+					if( more ) {
+						pending.add( pool.submit( new Callable<Result>() {
+							public Result call() throws IOException {
+								return analyse( name );
+							}
+						} ) );
+						submitted++;
+					}
+				}
+
+				if( !pending.isEmpty() ) {
+					fileName = prefix + (submitted - pending.size());
+					Result result = await( pending.poll() );
+					say( "" );
+					say( "312FILE " + fileName );
+					write( result, out );
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+
+		fileName = prefix + submitted;
+		say(fileName+" does not exist");
+	} // end of method goParallel
+
+	/**
+	 *
+	 * write
+	 *
+	 * Copies out one file's buffered trace and errors.
+	 *
+	 **/
+
+	private void write( Result result, PrintStream out ) throws IOException {
+		long start = System.nanoTime();
+		if( binary != null )
+			binary.write( result.trace );
+		else if( traceSink != null )
+			traceSink.insertBytes( result.trace );
+		else
+			System.out.write( result.trace );
+		if( result.measurement != null ) {
+			result.measurement.addOutput( System.nanoTime() - start );
+			stats.add( result.measurement );
+		}
+		out.write( result.errors );
+	} // end of method write
+
+	/**
+	 *
+	 * newThreadPerFileExecutor
+	 *
+	 * Runs each file on a virtual thread of its own where the JVM has them
+	 * (Java 21 on), and on a platform thread of its own where it does not.
+	 * Found by reflection, so the source still builds on older JDKs.
+	 *
+	 **/
+
+	private static ExecutorService newThreadPerFileExecutor() {
+		try {
+			Method factory = Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" );
+			return (ExecutorService) factory.invoke( null );
+		} catch( ReflectiveOperationException e ) {
+			// no virtual threads, or only as a preview feature not enabled
+			return Executors.newCachedThreadPool();
+		}
+	} // end of method newThreadPerFileExecutor
+
+	/**
+	 *
+	 * say
+	 *
+	 * Writes a line of console output, into the binary trace or the trace
+	 * file if there is one.
+	 *
+	 **/
+
+	private void say( String line ) throws IOException {
+		if( traceSink != null ) {
+			traceSink.insertText( line + System.lineSeparator() );
+			return;
+		}
+		if( binary == null ) {
+			System.out.println( line );
+			return;
+		}
+		BinaryTraceSink sink = new BinaryTraceSink( binary );
+		sink.insertText( line + System.lineSeparator() );
+		sink.flush();
+	} // end of method say
+
+	/**
+	 *
+	 * analyse
+	 *
+	 * Runs one file through a fresh SyntaxAnalyser with buffered output.
+	 * With a thread per file, the file is read in full first, so that reads
+	 * blocked on slow storage overlap, and then parsed once a processor is
+	 * free.  With a cache, the file is read in full to find its result
+	 * there, and analysed only if it is not, its result then kept.
+	 *
+	 **/
+
+	private Result analyse( String name ) throws IOException {
+		ByteArrayOutputStream trace = new ByteArrayOutputStream();
+		ByteArrayOutputStream errors = new ByteArrayOutputStream();
+		PrintStream errorStream = new PrintStream( errors );
+
+		CompileStatistics.Measurement m = null;
+		long start = System.nanoTime();
+		byte[] source = null;
+		String key = null;
+		if( concurrency > 0 || cache != null )
+			source = Files.readAllBytes( Paths.get(name) );
+		if( cache != null ) {
+			key = cache.key( source, name, cacheOptions );
+			ResultCache.Entry entry = cache.get( key );
+			if( entry != null ) {
+				Result result = new Result();
+				result.trace = entry.trace;
+				result.errors = entry.errors;
+				if( stats != null ) {
+					m = new CompileStatistics.Measurement( name, source.length );
+					m.addLex( System.nanoTime() - start );
+					m.cached( entry.parsed, entry.maxDepth, entry.errorCount );
+					result.measurement = m;
+				}
+				return result;
+			}
+		}
+
+		TokenSource tokens;
+		if( concurrency > 0 ) {
+			tokens = new ChannelLexer( new ByteArrayInputStream(source) );
+			if( stats != null ) {
+				m = new CompileStatistics.Measurement( name, source.length );
+				m.addLex( System.nanoTime() - start );
+			}
+			processors.acquireUninterruptibly();
+		} else {
+			if( stats != null ) {
+				m = new CompileStatistics.Measurement( name, new File(name).length() );
+				// reading it for the cache counts as lexing, as with a thread per file
+				if( source != null )
+					m.addLex( System.nanoTime() - start );
+				m.start();
+			}
+			// the bytes read for the cache are lexed, not the file again, so that a
+			// file changed in between cannot have its result kept under the old key
+			tokens = (source != null) ? lexer( source, m ) : lexer( name, m );
+		}
+		PipelinedLexer pipe = null;
+		if( pipelined )
+			tokens = pipe = new PipelinedLexer( tokens, name );
+		if( m != null )
+			tokens = m.measure( tokens );
+
+		AbstractTraceSink sink = null;
+		if( !validateOnly )
+			sink = (binary != null) ? new BinaryTraceSink( trace ) : new BufferedTraceSink( trace );
+		AbstractSyntaxAnalyser syn = analyser( tokens, name );
+		boolean parsed;
+		try {
+			if( m != null && concurrency > 0 )
+				m.start();
+			parsed = syn.parse( errorStream, sink ) ;
+		} finally {
+			if( pipe != null )
+				pipe.close();
+			if( concurrency > 0 )
+				processors.release();
+		}
+		if( validateOnly && parsed )
+			reportSuccess( trace );
+		if( m != null )
+			m.finish( syn, parsed );
+		errorStream.flush();
+
+		Result result = new Result();
+		result.trace = trace.toByteArray();
+		result.errors = errors.toByteArray();
+		result.measurement = m;
+		if( key != null )
+			cache.put( key, new ResultCache.Entry( parsed, syn.getMaxDepth(), syn.getErrorCount(), result.errors, result.trace ) );
+		return result;
+	} // end of method analyse
+
+	/**
+	 *
+	 * reportSuccess
+	 *
+	 * Writes the verdict of a file that parsed without a trace, as its trace would have ended.
+	 *
+	 **/
+
+	private void reportSuccess( OutputStream os ) throws IOException {
+		AbstractTraceSink sink = (binary != null) ? new BinaryTraceSink( os ) : new BufferedTraceSink( os );
+		sink.reportSuccess();
+		sink.flush();
+	} // end of method reportSuccess
+
+	/**
+	 *
+	 * lexer
+	 *
+	 * Opens the lexer the options ask for on a file, timing the opening as lexing.
+	 *
+	 **/
+
+	private TokenSource lexer( String name, CompileStatistics.Measurement m ) throws IOException {
+		long start = System.nanoTime();
+		TokenSource lex = chunked ? new ParallelLexer( name ) : new LexicalAnalyser( name );
+		if( m != null )
+			m.addLex( System.nanoTime() - start );
+		return lex;
+	} // end of method lexer
+
+	/**
+	 *
+	 * lexer
+	 *
+	 * As above, on a source already read in full.
+	 *
+	 **/
+
+	private TokenSource lexer( byte[] source, CompileStatistics.Measurement m ) {
+		long start = System.nanoTime();
+		TokenSource lex = null;
+		if( chunked && source.length > 0 ) {
+			try {
+				lex = new ParallelLexer( ByteBuffer.wrap(source), Charset.defaultCharset(),
+						ForkJoinPool.commonPool(), ParallelLexer.defaultChunkSize );
+			} catch( UnsupportedCharsetException e ) {
+				// lexed on this thread, as ParallelLexer does a file in such a charset
+			}
+		}
+		if( lex == null )
+			lex = new ChannelLexer( new ByteArrayInputStream(source) );
+		if( m != null )
+			m.addLex( System.nanoTime() - start );
+		return lex;
+	} // end of method lexer
+
+	/**
+	 *
+	 * analyser
+	 *
+	 * Makes the analyser the options ask for.
+	 *
+	 **/
+
+	private AbstractSyntaxAnalyser analyser( TokenSource tokens, String name ) throws IOException {
+		if( tableDriven )
+			return new TableDrivenAnalyser( tokens, name );
+		SyntaxAnalyser syn;
+		if( split > 0 )
+			syn = new ParallelAnalyser( TokenBuffer.readAll(tokens), name, splitPool, split );
+		else
+			syn = new SyntaxAnalyser( tokens, name );
+		syn.setErrorRecovery( recover );
+		return syn;
+	} // end of method analyser
+
+	/**
+	 *
+	 * await
+	 *
+	 * Waits for a worker, rethrowing whatever stopped it as the sequential run would.
+	 *
+	 **/
+
+	private static Result await( Future<Result> future ) throws IOException {
+		try {
+			return future.get();
+		} catch( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException( "interrupted waiting for worker" );
+		} catch( ExecutionException e ) {
+			Throwable cause = e.getCause();
+			if( cause instanceof IOException ) throw (IOException) cause;
+			if( cause instanceof RuntimeException ) throw (RuntimeException) cause;
+			if( cause instanceof Error ) throw (Error) cause;
+			throw new IOException( cause );
+		}
+	} // end of method await
+
+	/**
+	 *
+	 * main
+	 *
+	 * Options: -j [n] analyses files on n workers (default: one per processor).
+	 *          -virtual [n] reads up to n files at once (default 256), each on a
+	 *                       thread of its own, virtual where the JVM has them;
+	 *                       parsing still runs on one thread per processor.
+	 *          -validate checks syntax only, writing no parse trace but
+	 *                    312SUCCESS for each file that parses.
+	 *          -recover reports every error in each file, not only the first.
+	 *          -pipeline lexes each file on a thread of its own, ahead of its
+	 *                    parser, so one large file uses two processors.
+	 *          -chunked lexes each file in chunks, several at once, on the
+	 *                   common fork/join pool; not with -virtual.
+	 *          -split [n] parses the statements of each file on n threads at once
+	 *                     (default: one per processor), for a few very large files.
+	 *          -table parses with the table-driven LL(1) engine; its output is the
+	 *                 same, but it cannot recover from errors.
+	 *          -programs prefix reads prefix0, prefix1, ... instead of the Programs Folder.
+	 *          -cache dir [mb] keeps each file's result in dir, keyed by its contents,
+	 *                          and copies it out unanalysed while the file and the
+	 *                          compiler are unchanged; at most mb megabytes (default
+	 *                          256) are kept, the least recently used removed first.
+	 *          -stats file gathers timings and counts, watchable over JMX as
+	 *                      Compile:type=Statistics, and writes them to file as JSON.
+	 *          -binary file writes the console output to file as a binary trace,
+	 *                       which BinaryTraceReader turns back into text.
+	 *          -trace file writes the console output to file as text, in bulk
+	 *                      through a FileChannel.
+	 *
+	 **/
+
 	public static void main(String args[]) throws IOException {
 		Compile c = new Compile();
+		for( int i = 0; i < args.length; i++ ) {
+			if( args[i].equals("-j") ) {
+				c.workers = Runtime.getRuntime().availableProcessors();
+				if( i + 1 < args.length && args[i + 1].matches("[0-9]+") )
+					c.workers = Math.max( 1, Integer.parseInt(args[++i]) );
+			} else if( args[i].equals("-virtual") ) {
+				c.concurrency = 256;
+				if( i + 1 < args.length && args[i + 1].matches("[0-9]+") )
+					c.concurrency = Math.max( 1, Integer.parseInt(args[++i]) );
+			} else if( args[i].equals("-validate") ) {
+				c.validateOnly = true;
+			} else if( args[i].equals("-recover") ) {
+				c.recover = true;
+			} else if( args[i].equals("-pipeline") ) {
+				c.pipelined = true;
+			} else if( args[i].equals("-chunked") ) {
+				c.chunked = true;
+			} else if( args[i].equals("-split") ) {
+				c.split = Runtime.getRuntime().availableProcessors();
+				if( i + 1 < args.length && args[i + 1].matches("[0-9]+") )
+					c.split = Math.max( 1, Integer.parseInt(args[++i]) );
+			} else if( args[i].equals("-table") ) {
+				c.tableDriven = true;
+			} else if( args[i].equals("-binary") && i + 1 < args.length ) {
+				c.binaryFile = args[++i];
+			} else if( args[i].equals("-trace") && i + 1 < args.length ) {
+				c.traceFile = args[++i];
+			} else if( args[i].equals("-cache") && i + 1 < args.length ) {
+				c.cacheDir = args[++i];
+				if( i + 1 < args.length && args[i + 1].matches("[0-9]+") )
+					c.cacheBytes = Long.parseLong( args[++i] ) << 20;
+			} else if( args[i].equals("-stats") && i + 1 < args.length ) {
+				c.statsFile = args[++i];
+			} else if( args[i].equals("-programs") && i + 1 < args.length ) {
+				c.prefix = args[++i];
+			} else {
+				System.err.println( "unknown option " + args[i] );
+				System.exit(1);
+			}
+		}
+		if( c.tableDriven && c.recover ) {
+			System.err.println( "-recover needs the recursive descent analyser, not -table" );
+			System.exit(1);
+		}
+		if( c.chunked && c.concurrency > 0 ) {
+			System.err.println( "-chunked lexes files by name, which -virtual does not" );
+			System.exit(1);
+		}
+		if( c.binaryFile != null && c.traceFile != null ) {
+			System.err.println( "-binary and -trace both say where the console output goes" );
+			System.exit(1);
+		}
+		if( c.tableDriven && c.split > 0 ) {
+			System.err.println( "-split needs the recursive descent analyser, not -table" );
+			System.exit(1);
+		}
 		c.go();
 	};
 
@@ -0,0 +1,425 @@
+
+/**
+ *
+ * A long-running compile server, so that a batch of many small sources pays
+ * for starting the JVM, loading classes and warming up the JIT once rather
+ * than once per run.  It listens on a Unix domain socket, queues each
+ * request it is sent and analyses it on a pool of workers.  A request can
+ * name any file the server can read, and stop it, so the socket is made
+ * readable and writable by its owner alone, and connections from any other
+ * user are closed unanswered.
+ *
+ * The protocol is line-based, so a shell script can drive it with nc -U.
+ * A request is one of:
+ *
+ *   FILE path            analyse the named file
+ *   SOURCE length [name] analyse the length bytes that follow, reporting
+ *                        errors against name
+ *   QUIT                 close the connection
+ *   SHUTDOWN             stop the server once requests in hand are answered
+ *
+ * A FILE or SOURCE request may be preceded by the word TRACE to have the
+ * parse trace sent back too.  The answer is a line "OK e t" if the source
+ * parsed or "FAILED e t" if not, followed by e bytes of error report, as
+ * Compile writes to res.txt, then t bytes of trace.  A request that could
+ * not be carried out is answered "ERROR message", and one turned away
+ * because the queue is full "BUSY".  Requests on a connection are answered
+ * in order; use several connections to have them analysed at once.
+ *
+ * Timings and counts over every request are kept, and can be watched over
+ * JMX as CompileServer:type=Statistics.
+ *
+ **/
+
+import java.io.* ;
+import java.net.* ;
+import java.nio.channels.* ;
+import java.nio.charset.* ;
+import java.nio.file.* ;
+import java.nio.file.attribute.* ;
+import java.util.concurrent.* ;
+import jdk.net.* ;
+
+public class CompileServer
+{
+	/** The socket listened on unless another is given. */
+	public static final String defaultSocket = "compile-server.sock" ;
+	/** The largest source a SOURCE request may carry. */
+	private static final int maxSource = 64 << 20 ;
+	/** The longest request line read. */
+	private static final int maxLine = 8192 ;
+
+	private ServerSocketChannel server ;
+	/** Where the socket is. */
+	private Path socket ;
+	/** The user running the server, the only one whose requests are answered. */
+	private UserPrincipal owner ;
+	/** Analyses the requests queued. */
+	private ThreadPoolExecutor workers ;
+	/** Reads the requests of each connection and writes their answers. */
+	private ExecutorService connections ;
+	/** The totals over every request answered. */
+	private CompileStatistics statistics = new CompileStatistics(false) ;
+
+	/** Creates a server listening on a Unix domain socket that only its
+	  owner may open.  A socket left by a server no longer running is
+	  replaced.
+
+	  @param socket Where the socket is made.
+	  @param threads The number of workers analysing requests.
+	  @param queue The most requests waiting for a worker before more are turned away.
+	  @throws IOException if the socket cannot be made, or another server is listening on it.
+	 */
+	public CompileServer(Path socket, int threads, int queue) throws IOException
+	{
+		this.socket = socket ;
+		removeStale(socket) ;
+		server = ServerSocketChannel.open(StandardProtocolFamily.UNIX) ;
+		try {
+			server.bind(UnixDomainSocketAddress.of(socket), 64) ;
+			try {
+				Files.setPosixFilePermissions(socket, PosixFilePermissions.fromString("rw-------")) ;
+			} catch (UnsupportedOperationException e) {
+				// no POSIX permissions here; the check of each connection's user still stands
+			}
+			owner = Files.getOwner(socket) ;
+		} catch (IOException e) {
+			server.close() ;
+			Files.deleteIfExists(socket) ;
+			throw e ;
+		}
+		workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(queue), daemons("compile-worker")) ;
+		connections = Executors.newCachedThreadPool(daemons("compile-connection")) ;
+	} // end of constructor method
+
+	/** Removes a socket left by a server that is no longer listening on it.
+
+	  @throws IOException if the path is not a socket, or a server is listening on it.
+	 */
+	private static void removeStale(Path socket) throws IOException
+	{
+		BasicFileAttributes attributes ;
+		try {
+			attributes = Files.readAttributes(socket, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS) ;
+		} catch (NoSuchFileException e) {
+			return ;
+		}
+		// a socket is neither a file, a directory nor a link
+		if (!attributes.isOther())
+			throw new IOException(socket + " is not a socket") ;
+		try {
+			SocketChannel.open(UnixDomainSocketAddress.of(socket)).close() ;
+		} catch (ConnectException e) {
+			Files.deleteIfExists(socket) ;
+			return ;
+		}
+		throw new IOException("a server is already listening on " + socket) ;
+	} // end of method removeStale
+
+	/** @return Whether a connection is from the user running the server, as
+	  far as the platform can tell. */
+	private boolean fromOwner(SocketChannel channel) throws IOException
+	{
+		if (!channel.supportedOptions().contains(ExtendedSocketOptions.SO_PEERCRED))
+			return true ;
+		return owner.equals(channel.getOption(ExtendedSocketOptions.SO_PEERCRED).user()) ;
+	} // end of method fromOwner
+
+	/** @return A factory of daemon threads, so a stuck client cannot keep the JVM up. */
+	private static ThreadFactory daemons(final String name)
+	{
+		return new ThreadFactory()
+		{
+			private int count ;
+
+			public synchronized Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, name + "-" + count++) ;
+				t.setDaemon(true) ;
+				return t ;
+			} // end of method newThread
+		} ;
+	} // end of method daemons
+
+	/** @return The totals over every request answered. */
+	public CompileStatistics getStatistics()
+	{
+		return statistics ;
+	} // end of method getStatistics
+
+	/** @return Where the socket listened on is. */
+	public Path getSocket()
+	{
+		return socket ;
+	} // end of method getSocket
+
+	/** Accepts connections until the server is shut down, then waits for
+	  the requests queued to be analysed.
+
+	  @throws IOException if connections can no longer be accepted.
+	 */
+	public void serve() throws IOException
+	{
+		try {
+			while (true)
+			{
+				final SocketChannel channel ;
+				try {
+					channel = server.accept() ;
+				} catch (ClosedChannelException e) {
+					// shutdown() closed the server socket
+					if (!server.isOpen())
+						break ;
+					throw e ;
+				}
+				connections.execute(new Runnable()
+				{
+					public void run()
+					{
+						converse(channel) ;
+					} // end of method run
+				}) ;
+			}
+		} finally {
+			Files.deleteIfExists(socket) ;
+			workers.shutdown() ;
+			try {
+				workers.awaitTermination(1, TimeUnit.MINUTES) ;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt() ;
+			}
+			// give answers already worked out time to be written; idle connections are dropped
+			connections.shutdown() ;
+			try {
+				connections.awaitTermination(5, TimeUnit.SECONDS) ;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt() ;
+			}
+		}
+	} // end of method serve
+
+	/** Stops accepting connections.  Requests already queued are still answered. */
+	public void shutdown()
+	{
+		try {
+			server.close() ;
+		} catch (IOException e) {
+			// nothing more can be done with a socket that will not close
+		}
+	} // end of method shutdown
+
+	/** Answers the requests of one connection until it is closed or quits. */
+	private void converse(SocketChannel channel)
+	{
+		try {
+			if (!fromOwner(channel))
+				return ;
+			InputStream in = new BufferedInputStream(Channels.newInputStream(channel)) ;
+			OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel)) ;
+			while (true)
+			{
+				// a line too long to read is as malformed as one read, so both are answered
+				try {
+					String line = readLine(in) ;
+					if ((line == null) || line.equals("QUIT"))
+						break ;
+					if (line.equals("SHUTDOWN"))
+					{
+						shutdown() ;
+						break ;
+					}
+					if (!line.isEmpty())
+						answer(line, in, out) ;
+				} catch (ProtocolException e) {
+					// the rest of the stream cannot be trusted to line up with requests
+					writeLine(out, "ERROR " + e.getMessage()) ;
+					break ;
+				}
+				out.flush() ;
+			}
+			out.flush() ;
+		} catch (IOException e) {
+			// the client went away; there is no one left to tell
+		} finally {
+			try {
+				channel.close() ;
+			} catch (IOException e) {
+				// already closed by the client
+			}
+		}
+	} // end of method converse
+
+	/** Reads, queues and answers one request.
+
+	  @throws ProtocolException if the request is malformed.
+	  @throws IOException if the connection fails.
+	 */
+	private void answer(String line, InputStream in, OutputStream out) throws IOException
+	{
+		final boolean trace = line.startsWith("TRACE ") ;
+		if (trace)
+			line = line.substring(6) ;
+
+		Callable<Compiled> job ;
+		if (line.startsWith("FILE "))
+		{
+			final String path = line.substring(5) ;
+			job = new Callable<Compiled>()
+			{
+				public Compiled call() throws IOException
+				{
+					CompileStatistics.Measurement m = new CompileStatistics.Measurement(path, new File(path).length()) ;
+					m.start() ;
+					return compile(m.lex(path), path, m, trace) ;
+				} // end of method call
+			} ;
+		}
+		else if (line.startsWith("SOURCE "))
+		{
+			String[] words = line.substring(7).split(" ", 2) ;
+			int length ;
+			try {
+				length = Integer.parseInt(words[0]) ;
+			} catch (NumberFormatException e) {
+				throw new ProtocolException("bad length " + words[0]) ;
+			}
+			if ((length < 0) || (length > maxSource))
+				throw new ProtocolException("source length " + length + " outside 0.." + maxSource) ;
+			final String name = (words.length > 1) ? words[1] : "source" ;
+			final byte[] source = new byte[length] ;
+			new DataInputStream(in).readFully(source) ;
+			job = new Callable<Compiled>()
+			{
+				public Compiled call() throws IOException
+				{
+					CompileStatistics.Measurement m = new CompileStatistics.Measurement(name, source.length) ;
+					m.start() ;
+					return compile(m.measure(new ChannelLexer(new ByteArrayInputStream(source))), name, m, trace) ;
+				} // end of method call
+			} ;
+		}
+		else
+			throw new ProtocolException("unknown request " + line) ;
+
+		Future<Compiled> result ;
+		try {
+			result = workers.submit(job) ;
+		} catch (RejectedExecutionException e) {
+			writeLine(out, "BUSY") ;
+			return ;
+		}
+
+		Compiled compiled ;
+		try {
+			compiled = result.get() ;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt() ;
+			throw new InterruptedIOException("interrupted waiting for worker") ;
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause() ;
+			writeLine(out, "ERROR " + String.valueOf(cause.getMessage()).replace('\n', ' ')) ;
+			return ;
+		}
+		long start = System.nanoTime() ;
+		writeLine(out, (compiled.success ? "OK " : "FAILED ") + compiled.errors.length + " " + compiled.trace.length) ;
+		out.write(compiled.errors) ;
+		out.write(compiled.trace) ;
+		out.flush() ;
+		compiled.measurement.addOutput(System.nanoTime() - start) ;
+		statistics.add(compiled.measurement) ;
+	} // end of method answer
+
+	/** The outcome of analysing one source. */
+	private static class Compiled
+	{
+		boolean success ;
+		byte[] errors ;
+		byte[] trace ;
+		CompileStatistics.Measurement measurement ;
+	} // end of class Compiled
+
+	/** Analyses one source, keeping its error report and, if asked for, its trace. */
+	private static Compiled compile(TokenSource tokens, String name, CompileStatistics.Measurement m, boolean trace) throws IOException
+	{
+		ByteArrayOutputStream errors = new ByteArrayOutputStream() ;
+		ByteArrayOutputStream traced = new ByteArrayOutputStream() ;
+		PrintStream errorStream = new PrintStream(errors) ;
+
+		SyntaxAnalyser syn = new SyntaxAnalyser(tokens, name) ;
+		Compiled compiled = new Compiled() ;
+		compiled.success = syn.parse(errorStream, trace ? new BufferedTraceSink(traced) : null) ;
+		m.finish(syn, compiled.success) ;
+		compiled.measurement = m ;
+		errorStream.flush() ;
+		compiled.errors = errors.toByteArray() ;
+		compiled.trace = traced.toByteArray() ;
+		return compiled ;
+	} // end of method compile
+
+	/** Reads a line ended by a newline, dropping any carriage return before it.
+
+	  @return The line, or null at the end of the stream.
+	  @throws ProtocolException if the line is too long.
+	 */
+	private static String readLine(InputStream in) throws IOException
+	{
+		ByteArrayOutputStream line = new ByteArrayOutputStream() ;
+		int b ;
+		while ((b = in.read()) != '\n')
+		{
+			if (b < 0)
+				return (line.size() > 0) ? line.toString("UTF-8") : null ;
+			if (line.size() == maxLine)
+				throw new ProtocolException("request line longer than " + maxLine) ;
+			line.write(b) ;
+		}
+		String s = line.toString("UTF-8") ;
+		return s.endsWith("\r") ? s.substring(0, s.length() - 1) : s ;
+	} // end of method readLine
+
+	private static void writeLine(OutputStream out, String line) throws IOException
+	{
+		out.write((line + "\n").getBytes(StandardCharsets.UTF_8)) ;
+	} // end of method writeLine
+
+	/** Runs a server until a client shuts it down.
+
+	  Options: -socket path listens on a Unix domain socket at path
+	                   (default compile-server.sock).
+	           -j n     analyses n requests at once (default: one per processor).
+	           -queue n turns requests away once n are waiting (default 1024).
+	           -stats file writes the totals over every request to file as JSON
+	                   once the server is shut down.
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		String socket = defaultSocket ;
+		int threads = Runtime.getRuntime().availableProcessors() ;
+		int queue = 1024 ;
+		String statsFile = null ;
+		for (int i = 0 ; i < args.length ; i++)
+		{
+			if (args[i].equals("-socket") && (i + 1 < args.length))
+				socket = args[++i] ;
+			else if (args[i].equals("-j") && (i + 1 < args.length))
+				threads = Math.max(1, Integer.parseInt(args[++i])) ;
+			else if (args[i].equals("-queue") && (i + 1 < args.length))
+				queue = Math.max(1, Integer.parseInt(args[++i])) ;
+			else if (args[i].equals("-stats") && (i + 1 < args.length))
+				statsFile = args[++i] ;
+			else
+			{
+				System.err.println("unknown option " + args[i]) ;
+				System.exit(1) ;
+			}
+		}
+
+		CompileServer server = new CompileServer(Paths.get(socket), threads, queue) ;
+		server.getStatistics().register("CompileServer:type=Statistics") ;
+		System.out.println("compile server listening on " + server.getSocket()) ;
+		server.serve() ;
+		if (statsFile != null)
+			server.getStatistics().writeSummary(statsFile) ;
+	} // end of method main
+} // end of class CompileServer
@@ -0,0 +1,396 @@
+
+/**
+ *
+ * Measures where the time of a batch goes, per source and in total: time
+ * lexing, parsing and writing output, tokens by symbol, the deepest nesting
+ * reached, bytes read, errors, sources that failed and sources whose
+ * results were cached.
+ * Totals can be watched over JMX while a batch or server runs, and written
+ * out as JSON at the end of a batch.
+ *
+ * Each source is measured by a Measurement of its own, wrapped around its
+ * token source and trace stream, and added to the totals once done, so
+ * sources can be measured on several threads at once.
+ *
+ **/
+
+import java.io.* ;
+import java.lang.management.* ;
+import java.util.* ;
+import javax.management.* ;
+
+public class CompileStatistics implements CompileStatisticsMXBean
+{
+	/** Room for every symbol from Token. */
+	private static final int symbols = 64 ;
+
+	/** What was measured of one source. */
+	public static class Measurement
+	{
+		/* Set by whoever analyses the source. */
+		String name ;
+		long bytes ;
+		int maxDepth ;
+		boolean failed ;
+		/** The number of errors reported, more than one only if the parse recovered from errors. */
+		int errors ;
+		/** Whether its result was read from a ResultCache rather than analysed. */
+		boolean cached ;
+		/* Gathered as the source is analysed. */
+		long lexNanos,
+				parseNanos,
+				outputNanos ;
+		long[] tokens = new long[symbols] ;
+		/* Set by start(). */
+		private long startNanos,
+				lexAtStart,
+				outputAtStart ;
+
+		/** Creates a measurement of the named source of the given size. */
+		public Measurement(String name, long bytes)
+		{
+			this.name = name ;
+			this.bytes = bytes ;
+		} // end of constructor method
+
+		/** @return A token source passing on the given one's tokens, counting
+		  them and timing how long each takes to arrive. */
+		public TokenSource measure(final TokenSource source)
+		{
+			return new TokenSource()
+			{
+				public Token getNextToken() throws IOException
+				{
+					long start = System.nanoTime() ;
+					Token t = source.getNextToken() ;
+					lexNanos += System.nanoTime() - start ;
+					if ((t != null) && (t.symbol >= 0) && (t.symbol < symbols))
+						tokens[t.symbol]++ ;
+					return t ;
+				} // end of method getNextToken
+			} ;
+		} // end of method measure
+
+		/** @return A stream passing on writes to the given one, timing them. */
+		public OutputStream measure(OutputStream os)
+		{
+			return new FilterOutputStream(os)
+			{
+				public void write(int b) throws IOException
+				{
+					long start = System.nanoTime() ;
+					out.write(b) ;
+					outputNanos += System.nanoTime() - start ;
+				} // end of method write
+
+				public void write(byte[] b, int offset, int length) throws IOException
+				{
+					long start = System.nanoTime() ;
+					out.write(b, offset, length) ;
+					outputNanos += System.nanoTime() - start ;
+				} // end of method write
+
+				public void flush() throws IOException
+				{
+					long start = System.nanoTime() ;
+					out.flush() ;
+					outputNanos += System.nanoTime() - start ;
+				} // end of method flush
+			} ;
+		} // end of method measure
+
+		/** Opens a lexer on the named file, timing the opening as lexing.
+
+		  @return The lexer, its tokens counted and timed.
+		  @throws IOException if the file cannot be opened.
+		 */
+		public TokenSource lex(String fileName) throws IOException
+		{
+			long start = System.nanoTime() ;
+			LexicalAnalyser lex = new LexicalAnalyser(fileName) ;
+			lexNanos += System.nanoTime() - start ;
+			return measure(lex) ;
+		} // end of method lex
+
+		/** Marks the start of the analysis.  The time from here to finish()
+		  not spent lexing or writing output counts as parsing. */
+		public void start()
+		{
+			startNanos = System.nanoTime() ;
+			lexAtStart = lexNanos ;
+			outputAtStart = outputNanos ;
+		} // end of method start
+
+		/** Marks the end of the analysis.
+
+		  @param syn The analyser that parsed the source.
+		  @param success Whether the source parsed.
+		 */
+		public void finish(AbstractSyntaxAnalyser syn, boolean success)
+		{
+			long elapsed = System.nanoTime() - startNanos ;
+			parseNanos += elapsed - (lexNanos - lexAtStart) - (outputNanos - outputAtStart) ;
+			maxDepth = syn.getMaxDepth() ;
+			failed = !success ;
+			errors = syn.getErrorCount() ;
+		} // end of method finish
+
+		/** Marks the source as not analysed at all, its result read from a
+		  ResultCache instead.  No tokens are counted, and the time spent
+		  reading the source and the result counts as lexing.
+
+		  @param success Whether the source parsed when it was analysed.
+		  @param depth The deepest nesting it reached then.
+		  @param errorCount The number of errors it reported then.
+		 */
+		public void cached(boolean success, int depth, int errorCount)
+		{
+			cached = true ;
+			failed = !success ;
+			maxDepth = depth ;
+			errors = errorCount ;
+		} // end of method cached
+
+		/** Counts time spent reading the source outside the lexer, such as
+		  reading it into memory first.
+
+		  @param nanos The time spent reading.
+		 */
+		public void addLex(long nanos)
+		{
+			lexNanos += nanos ;
+		} // end of method addLex
+
+		/** Counts time spent writing output outside the trace stream, such as
+		  a buffered trace copied out.
+
+		  @param nanos The time spent writing.
+		 */
+		public void addOutput(long nanos)
+		{
+			outputNanos += nanos ;
+		} // end of method addOutput
+	} // end of class Measurement
+
+	/* The totals. */
+	private long sources,
+			failedSources,
+			errors,
+			cacheHits,
+			bytesRead,
+			lexNanos,
+			parseNanos,
+			outputNanos ;
+	private long[] tokens = new long[symbols] ;
+	private int maxDepth ;
+	private String lastSource ;
+	/** Every measurement added, or null if they are not kept. */
+	private ArrayList<Measurement> measurements ;
+
+	/** Creates empty statistics.
+
+	  @param keep Whether each source's measurement is kept for the summary,
+	  or only the totals, as for a server that runs indefinitely.
+	 */
+	public CompileStatistics(boolean keep)
+	{
+		if (keep)
+			measurements = new ArrayList<Measurement>() ;
+	} // end of constructor method
+
+	/** Adds a finished measurement to the totals. */
+	public synchronized void add(Measurement m)
+	{
+		sources++ ;
+		if (m.failed)
+			failedSources++ ;
+		errors += m.errors ;
+		if (m.cached)
+			cacheHits++ ;
+		bytesRead += m.bytes ;
+		lexNanos += m.lexNanos ;
+		parseNanos += m.parseNanos ;
+		outputNanos += m.outputNanos ;
+		for (int i = 0 ; i < symbols ; i++)
+			tokens[i] += m.tokens[i] ;
+		maxDepth = Math.max(maxDepth, m.maxDepth) ;
+		lastSource = m.name ;
+		if (measurements != null)
+			measurements.add(m) ;
+	} // end of method add
+
+	/** Registers the statistics with the platform MBean server, warning
+	  rather than failing if they cannot be.
+
+	  @param name The object name to register under, such as "Compile:type=Statistics".
+	 */
+	public void register(String name)
+	{
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(name)) ;
+		} catch (JMException e) {
+			System.err.println("statistics not registered as " + name + ": " + e) ;
+		}
+	} // end of method register
+
+	public synchronized long getSources()
+	{
+		return sources ;
+	} // end of method getSources
+
+	public synchronized long getFailedSources()
+	{
+		return failedSources ;
+	} // end of method getFailedSources
+
+	public synchronized long getErrors()
+	{
+		return errors ;
+	} // end of method getErrors
+
+	public synchronized long getCacheHits()
+	{
+		return cacheHits ;
+	} // end of method getCacheHits
+
+	public synchronized long getBytesRead()
+	{
+		return bytesRead ;
+	} // end of method getBytesRead
+
+	public synchronized long getTokens()
+	{
+		long total = 0 ;
+		for (int i = 0 ; i < symbols ; i++)
+			total += tokens[i] ;
+		return total ;
+	} // end of method getTokens
+
+	public synchronized Map<String, Long> getTokensBySymbol()
+	{
+		return bySymbol(tokens) ;
+	} // end of method getTokensBySymbol
+
+	public synchronized long getLexMillis()
+	{
+		return lexNanos / 1000000 ;
+	} // end of method getLexMillis
+
+	public synchronized long getParseMillis()
+	{
+		return parseNanos / 1000000 ;
+	} // end of method getParseMillis
+
+	public synchronized long getOutputMillis()
+	{
+		return outputNanos / 1000000 ;
+	} // end of method getOutputMillis
+
+	public synchronized int getMaxDepth()
+	{
+		return maxDepth ;
+	} // end of method getMaxDepth
+
+	public synchronized String getLastSource()
+	{
+		return lastSource ;
+	} // end of method getLastSource
+
+	public synchronized void reset()
+	{
+		sources = failedSources = errors = cacheHits = bytesRead = lexNanos = parseNanos = outputNanos = 0 ;
+		Arrays.fill(tokens, 0) ;
+		maxDepth = 0 ;
+		lastSource = null ;
+		if (measurements != null)
+			measurements.clear() ;
+	} // end of method reset
+
+	/** @return The symbols seen, by name, in symbol order. */
+	private static Map<String, Long> bySymbol(long[] counts)
+	{
+		Map<String, Long> map = new LinkedHashMap<String, Long>() ;
+		for (int i = 0 ; i < symbols ; i++)
+			if (counts[i] > 0)
+				map.put(Token.getName(i), counts[i]) ;
+		return map ;
+	} // end of method bySymbol
+
+	/** Writes the totals and each source kept as a JSON object, times in nanoseconds.
+
+	  @param fileName The file to write.
+	  @throws IOException if the file cannot be written.
+	 */
+	public synchronized void writeSummary(String fileName) throws IOException
+	{
+		PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fileName), "UTF-8"))) ;
+		try {
+			out.println("{") ;
+			out.println("  \"sources\": " + sources + ",") ;
+			out.println("  \"failedSources\": " + failedSources + ",") ;
+			out.println("  \"errors\": " + errors + ",") ;
+			out.println("  \"cacheHits\": " + cacheHits + ",") ;
+			out.println("  \"bytes\": " + bytesRead + ",") ;
+			out.println("  \"tokens\": " + getTokens() + ",") ;
+			out.println("  \"lexNanos\": " + lexNanos + ",") ;
+			out.println("  \"parseNanos\": " + parseNanos + ",") ;
+			out.println("  \"outputNanos\": " + outputNanos + ",") ;
+			out.println("  \"maxDepth\": " + maxDepth + ",") ;
+			out.println("  \"tokensBySymbol\": " + json(bySymbol(tokens)) + ",") ;
+			out.print("  \"files\": [") ;
+			if (measurements != null)
+				for (int i = 0 ; i < measurements.size() ; i++)
+				{
+					Measurement m = measurements.get(i) ;
+					out.println((i == 0) ? "" : ",") ;
+					out.print("    {\"name\": " + json(m.name)
+							+ ", \"bytes\": " + m.bytes
+							+ ", \"failed\": " + m.failed
+							+ ", \"errors\": " + m.errors
+							+ ", \"cached\": " + m.cached
+							+ ", \"lexNanos\": " + m.lexNanos
+							+ ", \"parseNanos\": " + m.parseNanos
+							+ ", \"outputNanos\": " + m.outputNanos
+							+ ", \"maxDepth\": " + m.maxDepth
+							+ ", \"tokensBySymbol\": " + json(bySymbol(m.tokens)) + "}") ;
+				}
+			out.println() ;
+			out.println("  ]") ;
+			out.println("}") ;
+		} finally {
+			out.close() ;
+		}
+		if (out.checkError())
+			throw new IOException("could not write " + fileName) ;
+	} // end of method writeSummary
+
+	/** @return The counts as a JSON object. */
+	private static String json(Map<String, Long> counts)
+	{
+		StringBuilder b = new StringBuilder("{") ;
+		for (Map.Entry<String, Long> e : counts.entrySet())
+		{
+			if (b.length() > 1)
+				b.append(", ") ;
+			b.append(json(e.getKey())).append(": ").append(e.getValue()) ;
+		}
+		return b.append('}').toString() ;
+	} // end of method json
+
+	/** @return The string as a JSON string literal. */
+	private static String json(String s)
+	{
+		StringBuilder b = new StringBuilder("\"") ;
+		for (int i = 0 ; i < s.length() ; i++)
+		{
+			char c = s.charAt(i) ;
+			if ((c == '"') || (c == '\\'))
+				b.append('\\').append(c) ;
+			else if (c < ' ')
+				b.append(String.format("\\u%04x", (int) c)) ;
+			else
+				b.append(c) ;
+		}
+		return b.append('"').toString() ;
+	} // end of method json
+} // end of class CompileStatistics
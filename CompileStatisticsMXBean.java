@@ -0,0 +1,52 @@
+
+/**
+ *
+ * The management interface of CompileStatistics, through which JConsole or
+ * any other JMX client can watch a batch or a server as it runs.  Times are
+ * totals over every source analysed, in milliseconds.
+ *
+ **/
+
+import java.util.* ;
+
+public interface CompileStatisticsMXBean
+{
+	/** @return The number of sources analysed. */
+	long getSources() ;
+
+	/** @return The number of sources that failed to parse. */
+	long getFailedSources() ;
+
+	/** @return The number of errors reported, which with error recovery may be several per source. */
+	long getErrors() ;
+
+	/** @return The number of sources whose results were read from a cache, not analysed. */
+	long getCacheHits() ;
+
+	/** @return The number of bytes of source read. */
+	long getBytesRead() ;
+
+	/** @return The number of tokens handed to the parser. */
+	long getTokens() ;
+
+	/** @return The tokens handed to the parser, by the name of their symbol. */
+	Map<String, Long> getTokensBySymbol() ;
+
+	/** @return The time spent reading and lexing sources. */
+	long getLexMillis() ;
+
+	/** @return The time spent parsing, less that spent lexing and writing output. */
+	long getParseMillis() ;
+
+	/** @return The time spent writing traces out. */
+	long getOutputMillis() ;
+
+	/** @return The deepest nesting of non-terminals any source reached. */
+	int getMaxDepth() ;
+
+	/** @return The name of the source analysed last. */
+	String getLastSource() ;
+
+	/** Forgets everything measured so far. */
+	void reset() ;
+} // end of interface CompileStatisticsMXBean
@@ -0,0 +1,137 @@
+
+/**
+ *
+ * Interns identifiers: every distinct name is given a number, counting up
+ * from 0, and one canonical String, so a source that mentions a name many
+ * times holds it once and later stages can compare names as integers.
+ * Names are hashed straight from the lexer's buffer; a String is only made
+ * the first time a name is seen.
+ *
+ * A table is not safe for use by more than one thread at once.
+ *
+ **/
+
+import java.util.* ;
+
+public class IdentifierTable
+{
+	/** Open addressing: each slot holds a name's number plus one, or 0 if empty. */
+	private int[] slots = new int[256] ;
+	/* One entry per name, by number. */
+	private String[] names = new String[128] ;
+	private int[] hashes = new int[128] ;
+	/** The number of names held. */
+	private int size ;
+
+	/** Hashes text as String.hashCode() does, so a name's hash is its String's. */
+	private static int hash(CharSequence text)
+	{
+		int h = 0 ;
+		for (int i = 0, length = text.length() ; i < length ; i++)
+			h = 31 * h + text.charAt(i) ;
+		return h ;
+	} // end of method hash
+
+	/** Spreads a hash's high bits into the low ones a slot is chosen by. */
+	private static int spread(int h)
+	{
+		return h ^ (h >>> 16) ;
+	} // end of method spread
+
+	/** Does the text match the name? */
+	private static boolean matches(String name, CharSequence text)
+	{
+		int length = name.length() ;
+		if (length != text.length())
+			return false ;
+		for (int i = 0 ; i < length ; i++)
+			if (name.charAt(i) != text.charAt(i))
+				return false ;
+		return true ;
+	} // end of method matches
+
+	/** Returns the number of a name, adding it if new.
+
+	  @param text The name, which is copied if added.
+	  @return The name's number.
+	 */
+	public int intern(CharSequence text)
+	{
+		int h = hash(text) ;
+		int mask = slots.length - 1 ;
+		for (int slot = spread(h) & mask ; ; slot = (slot + 1) & mask)
+		{
+			int entry = slots[slot] ;
+			if (entry == 0)
+			{
+				int number = add(text.toString(), h) ;
+				slots[slot] = number + 1 ;
+				if (2 * size > slots.length)
+					rehash(slots.length * 2) ;
+				return number ;
+			}
+			if ((hashes[entry - 1] == h) && matches(names[entry - 1], text))
+				return entry - 1 ;
+		}
+	} // end of method intern
+
+	/** Returns the number of a name without adding it.
+
+	  @param text The name.
+	  @return The name's number, or -1 if it is not held.
+	 */
+	public int find(CharSequence text)
+	{
+		int h = hash(text) ;
+		int mask = slots.length - 1 ;
+		for (int slot = spread(h) & mask ; ; slot = (slot + 1) & mask)
+		{
+			int entry = slots[slot] ;
+			if (entry == 0)
+				return -1 ;
+			if ((hashes[entry - 1] == h) && matches(names[entry - 1], text))
+				return entry - 1 ;
+		}
+	} // end of method find
+
+	/** Gives a new name the next number. */
+	private int add(String name, int h)
+	{
+		if (size == names.length)
+		{
+			names = Arrays.copyOf(names, size * 2) ;
+			hashes = Arrays.copyOf(hashes, size * 2) ;
+		}
+		names[size] = name ;
+		hashes[size] = h ;
+		return size++ ;
+	} // end of method add
+
+	/** Moves every name into a table of the given number of slots. */
+	private void rehash(int capacity)
+	{
+		slots = new int[capacity] ;
+		int mask = capacity - 1 ;
+		for (int number = 0 ; number < size ; number++)
+		{
+			int slot = spread(hashes[number]) & mask ;
+			while (slots[slot] != 0)
+				slot = (slot + 1) & mask ;
+			slots[slot] = number + 1 ;
+		}
+	} // end of method rehash
+
+	/** @return The canonical String of the name with the given number. */
+	public String name(int number)
+	{
+		if ((number < 0) || (number >= size))
+			throw new IndexOutOfBoundsException("identifier " + number + " of " + size) ;
+		return names[number] ;
+	} // end of method name
+
+	/** @return The number of names held. */
+	public int size()
+	{
+		return size ;
+	} // end of method size
+} // end of class IdentifierTable
@@ -0,0 +1,294 @@
+
+/**
+ *
+ * A syntax analyser for a source that is edited and analysed again after
+ * every change, as in an editor.  It keeps the tokens of the source and the
+ * trace of each statement of the outermost statement list.  After an edit
+ * only the tokens around it are lexed again, and only the statements whose
+ * tokens changed are parsed again; the rest are replayed.  The trace and
+ * error report are the same as a full parse of the edited source gives.
+ *
+ **/
+
+import java.io.* ;
+import java.util.* ;
+
+public class IncrementalAnalyser extends SyntaxAnalyser
+{
+	/** The tokens of the source, with where each starts, handed to the parser in order. */
+	private static class TokenList implements TokenSource
+	{
+		Token[] tokens = new Token[1024] ;
+		int[] offsets = new int[1024] ;
+		int count ;
+		/** The index of the next token getNextToken() hands out. */
+		int position ;
+
+		public Token getNextToken()
+		{
+			if (position >= count)
+				return tokens[count - 1] ;
+			return tokens[position++] ;
+		} // end of method getNextToken
+
+		/** Replaces tokens from..to-1 with the given tokens. */
+		void replace(int from, int to, List<Token> added, int[] addedOffsets)
+		{
+			int newCount = count - (to - from) + added.size() ;
+			if (newCount > tokens.length)
+			{
+				tokens = Arrays.copyOf(tokens, Math.max(newCount, 2 * tokens.length)) ;
+				offsets = Arrays.copyOf(offsets, tokens.length) ;
+			}
+			System.arraycopy(tokens, to, tokens, from + added.size(), count - to) ;
+			System.arraycopy(offsets, to, offsets, from + added.size(), count - to) ;
+			for (int i = 0 ; i < added.size() ; i++)
+			{
+				tokens[from + i] = added.get(i) ;
+				offsets[from + i] = addedOffsets[i] ;
+			}
+			if (newCount < count)
+				Arrays.fill(tokens, newCount, count, null) ;
+			count = newCount ;
+		} // end of method replace
+	} // end of class TokenList
+
+	/** A statement of the outermost statement list that parsed, and its trace. */
+	private static class Statement
+	{
+		/* The indexes of its first token and of the token after it. */
+		int start, end ;
+		/** The depth it was traced at. */
+		int depth ;
+		TraceRecorder trace ;
+	} // end of class Statement
+
+	/** The source as it stands after every edit. */
+	private StringBuilder text ;
+	private TokenList list ;
+	/** The names of the identifiers, shared by every lexer so a name keeps its number across edits. */
+	private IdentifierTable identifiers = new IdentifierTable() ;
+
+	/** The statements parsed, in token order, as of the last parse and the edits since. */
+	private ArrayList<Statement> previous = new ArrayList<Statement>() ;
+	/** The statements a parse in progress has reached, which replace previous when it ends. */
+	private ArrayList<Statement> reached ;
+	/** How far through previous a parse in progress has looked. */
+	private int reading ;
+	/* Set by lex(): the first old token kept after an edit, and how far its line moved. */
+	private int resync,
+			lineDelta ;
+
+	/** Creates an analyser over the given source, lexing it in full.
+
+	  @param source The text of the source.
+	  @param filename The name errors are reported against.
+	  @throws IOException in the event that the source cannot be lexed.
+	 */
+	public IncrementalAnalyser(CharSequence source, String filename) throws IOException
+	{
+		this(source, filename, new TokenList()) ;
+	} // end of constructor method
+
+	private IncrementalAnalyser(CharSequence source, String filename, TokenList tokens) throws IOException
+	{
+		super(tokens, filename) ;
+		list = tokens ;
+		text = new StringBuilder(source) ;
+
+		ArrayList<Token> all = new ArrayList<Token>() ;
+		LexicalAnalyser lex = new LexicalAnalyser(text, 0, 0) ;
+		lex.setIdentifierTable(identifiers) ;
+		int[] offsets = lex(lex, all, 0, -1, 0) ;
+		list.replace(0, 0, all, offsets) ;
+	} // end of constructor method
+
+	/** @return The source as it stands after every edit. */
+	public String getText()
+	{
+		return text.toString() ;
+	} // end of method getText
+
+	/** Lexes tokens until EOF or, once past the given offset, until one starts
+	  where an old token did, the edit moving old offsets by delta.
+
+	  @param lex The lexer to read from.
+	  @param tokens Where the tokens are added; the matching old token is not.
+	  @param old The first old token that might match.
+	  @param after Where the edit ends, or -1 never to stop at an old token.
+	  @param delta How far the edit moved the text after it.
+	  @return The offset of each token added.
+	 */
+	private int[] lex(LexicalAnalyser lex, List<Token> tokens, int old, int after, int delta) throws IOException
+	{
+		int[] offsets = new int[64] ;
+		while (true)
+		{
+			Token t = lex.getNextToken() ;
+			int at = lex.tokenOffset() ;
+			if ((after >= 0) && (at >= after))
+			{
+				// from an old token's start on, the text and so the tokens are as before
+				while ((old < list.count) && (list.offsets[old] + delta < at))
+					old++ ;
+				if ((old < list.count) && (list.offsets[old] + delta == at))
+				{
+					resync = old ;
+					lineDelta = t.lineNumber - list.tokens[old].lineNumber ;
+					return offsets ;
+				}
+			}
+			if (tokens.size() == offsets.length)
+				offsets = Arrays.copyOf(offsets, offsets.length * 2) ;
+			offsets[tokens.size()] = at ;
+			tokens.add(t) ;
+			if (t.symbol == Token.eofSymbol)
+			{
+				resync = list.count ;
+				lineDelta = 0 ;
+				return offsets ;
+			}
+		}
+	} // end of method lex
+
+	/** Replaces part of the source, lexing again only the tokens the edit may touch.
+	  Nothing is parsed until parse() is next called.
+
+	  @param offset Where the text replaced starts.
+	  @param length How much text is replaced.
+	  @param replacement The text put in its place.
+	  @throws IOException in the event that the source cannot be lexed.
+	 */
+	public void edit(int offset, int length, CharSequence replacement) throws IOException
+	{
+		if ((offset < 0) || (length < 0) || (offset + length > text.length()))
+			throw new IndexOutOfBoundsException("edit " + offset + "+" + length + " of " + text.length()) ;
+
+		// lexing restarts at the last token before the edit, which the edit may run on from
+		int first = lastTokenBefore(offset) ;
+		int restart = 0, line = 0 ;
+		if (first >= 0)
+		{
+			restart = list.offsets[first] ;
+			line = list.tokens[first].lineNumber ;
+		}
+		else
+			first = 0 ;
+
+		text.replace(offset, offset + length, replacement.toString()) ;
+		int delta = replacement.length() - length ;
+
+		ArrayList<Token> fresh = new ArrayList<Token>() ;
+		LexicalAnalyser lex = new LexicalAnalyser(text, restart, line) ;
+		lex.setIdentifierTable(identifiers) ;
+		int[] offsets = lex(lex, fresh, first, offset + replacement.length(), delta) ;
+
+		for (int i = resync ; i < list.count ; i++)
+		{
+			list.offsets[i] += delta ;
+			list.tokens[i].lineNumber += lineDelta ;
+		}
+		int tokenDelta = fresh.size() - (resync - first) ;
+		list.replace(first, resync, fresh, offsets) ;
+
+		// a statement is kept unless one of its tokens, or the token after it, was lexed again
+		ArrayList<Statement> kept = new ArrayList<Statement>(previous.size()) ;
+		for (Statement s : previous)
+		{
+			if (s.end < first)
+				kept.add(s) ;
+			else if (s.start >= resync)
+			{
+				s.start += tokenDelta ;
+				s.end += tokenDelta ;
+				kept.add(s) ;
+			}
+		}
+		previous = kept ;
+	} // end of method edit
+
+	/** @return The index of the last token starting before the given offset, or -1 if none does. */
+	private int lastTokenBefore(int offset)
+	{
+		int low = 0, high = list.count - 1, found = -1 ;
+		while (low <= high)
+		{
+			int middle = (low + high) >>> 1 ;
+			if (list.offsets[middle] < offset)
+			{
+				found = middle ;
+				low = middle + 1 ;
+			}
+			else
+				high = middle - 1 ;
+		}
+		return found ;
+	} // end of method lastTokenBefore
+
+	/** Parses the source as it now stands, replaying the statements unchanged
+	  since they last parsed.
+
+	  @param ps The PrintStream object compilation exceptions are reported to.
+	  @return true if the source parsed without error.
+	  @throws IOException in the event that the trace can no longer be written.
+	 */
+	public boolean parse(PrintStream ps) throws IOException
+	{
+		list.position = 0 ;
+		reading = 0 ;
+		reached = new ArrayList<Statement>(previous.size() + 16) ;
+		try {
+			return super.parse(ps) ;
+		} finally {
+			// statements past where the parse stopped are kept for when it next gets that far
+			int last = reached.isEmpty() ? -1 : reached.get(reached.size() - 1).start ;
+			for (int i = reading ; i < previous.size() ; i++)
+				if (previous.get(i).start > last)
+					reached.add(previous.get(i)) ;
+			previous = reached ;
+			reached = null ;
+		}
+	} // end of method parse
+
+	/** Replays a statement unchanged since it last parsed, or parses it and records its trace. */
+	void outermostStatement(int tabs) throws IOException, CompilationException
+	{
+		int start = list.position - 1 ;
+		while ((reading < previous.size()) && (previous.get(reading).start < start))
+			reading++ ;
+		if ((reading < previous.size()) && (previous.get(reading).start == start))
+		{
+			Statement s = previous.get(reading++) ;
+			if (tracing)
+				s.trace.replay(myGenerate.sink, tabs - s.depth) ;
+			list.position = s.end + 1 ;
+			resumeAt(list.tokens[s.end], s.end - start) ;
+			reached.add(s) ;
+			return ;
+		}
+
+		Statement s = new Statement() ;
+		s.start = start ;
+		s.depth = tabs ;
+		s.trace = new TraceRecorder() ;
+
+		// the trace is recorded even when validating, so that a later parse can replay it
+		AbstractTraceSink sink = myGenerate.sink ;
+		boolean wasTracing = tracing ;
+		int recovered = recoveries ;
+		myGenerate.setSink(s.trace) ;
+		tracing = true ;
+		try {
+			super.outermostStatement(tabs) ;
+		} finally {
+			myGenerate.setSink(sink) ;
+			tracing = wasTracing ;
+			if (sink != null)
+				s.trace.replay(sink, 0) ;
+		}
+		s.end = list.position - 1 ;
+		// errors recovered from inside a statement are reported as they are found, which a replay would not do
+		if (recoveries == recovered)
+			reached.add(s) ;
+	} // end of method outermostStatement
+} // end of class IncrementalAnalyser
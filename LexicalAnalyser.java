@@ -10,12 +10,16 @@
  *
  **/
 import java.io.* ;
+import java.nio.* ;
+import java.nio.channels.* ;
+import java.nio.charset.* ;
+import java.nio.file.* ;
 
-public class LexicalAnalyser
+public class LexicalAnalyser implements TokenSource
 {
 
 	/** Represents a textual and symbolic reserved word. */
-	class ReservedWord
+	static class ReservedWord
 	{
 		/** The text used in source. */
 		public String text ;
@@ -34,15 +38,29 @@ public class LexicalAnalyser
 		} // end of constructor method
 	} // end of class ReservedWord
 
-	/** The maximum number of identifiers to hold during compilation. */
-	private static final int maxTableSize = 200 ;
 	/** The EOF character. */
 	private static final char EOF = '\000' ;
+	/** The largest region of a source file mapped into memory at once. */
+	private static final long mapWindowSize = 1L << 30 ;
+	/** The replacement for byte sequences the source encoding cannot decode. */
+	private static final char REPLACEMENT = '\uFFFD' ;
+	/** Steps over runs of blanks, comments, words and numbers in mapped or pushed bytes in bulk. */
+	private static final ByteScanner scanner = ByteScanner.forPlatform() ;
 
-	/** A list of symbols. */
-	private ReservedWord[] symbols = new ReservedWord[maxTableSize] ;
-	/** Holds the current number of symbols held. */
-	private int noOfSymbols ;
+	/* How bytes are decoded when reading a memory-mapped source. */
+	private static final int decodeUtf8 = 0,
+			decodeLatin1 = 1,
+			decodeAscii = 2 ;
+
+	/** The reserved words, each in the slot keywordSlot() gives it; no two share a slot. */
+	private static ReservedWord[] symbols = new ReservedWord[0] ;
+	/** Masks a keyword hash down to a slot in symbols. */
+	private static int symbolMask ;
+
+	static
+	{
+		initialiseScanner() ;
+	}
 
 	/** Is this the first time we have been called? */
 	private boolean firstCall ;
@@ -50,6 +68,48 @@ public class LexicalAnalyser
 	/** An input stream from the filename mentioned above. */
 	private BufferedReader sourceFile ;
 
+	/* Memory-mapped input, used instead of sourceFile where the source is a file. */
+	private ByteBuffer sourceBytes ;
+	private FileChannel sourceChannel ;
+	private long sourceSize,
+			windowEnd ;
+	private int decoding ;
+	/** Has a character been read since the last end of line? */
+	private boolean midLine ;
+	/** The low half of a surrogate pair still to be returned. */
+	private char pendingCharacter ;
+	/** Has the input run out?  Unlike currentCharacter == EOF, a NUL in the source does not count. */
+	private boolean endOfInput ;
+
+	/* Text held in memory, used instead of sourceFile or sourceBytes where given. */
+	private CharSequence sourceChars ;
+	private int sourcePosition ;
+	/** Where the current character, and the token last scanned, start in text held in memory. */
+	private int characterOffset,
+			tokenOffset ;
+
+	/* Pushed input: sourceBytes holds whatever has arrived and not yet been scanned. */
+	private boolean pushed,
+			pushFinished ;
+
+	/** Unwinds a scan that has run past the pushed input, to be retried when more arrives. */
+	private static class InputUnderflow extends IOException
+	{
+		private static final long serialVersionUID = 1L ;
+
+		InputUnderflow()
+		{
+			super("more input needed") ;
+		} // end of constructor method
+
+		public Throwable fillInStackTrace()
+		{
+			return this ;
+		} // end of method fillInStackTrace
+	} // end of class InputUnderflow
+
+	private static final InputUnderflow underflow = new InputUnderflow() ;
+
 	/* State-change character and offset counts. */
 	private char currentCharacter ;
 	private String currentLine ;
@@ -58,23 +118,106 @@ public class LexicalAnalyser
 
 	/* input buffer */
 	private StringBuffer currentText = new StringBuffer() ;
+	/** Holds a run of characters on its way to currentText. */
+	private char[] run = new char[64] ;
+	/** The text of the token just scanned if fixed, or null if held in currentText. */
+	private String scannedText ;
+	/** The names of the identifiers scanned. */
+	private IdentifierTable identifiers = new IdentifierTable() ;
 
-	/** Adds a reserved word to the internal symbol table.
+	/** Adds a reserved word to the internal symbol table, growing the
+	  table until every reserved word hashes to a slot of its own.
 
 	  @param t The text as seen in source.
 	  @param s The type of this word, typically a class constant from Token
+	  @throws IllegalArgumentException if the word hashes as another
+	  reserved word does, as "then" and "torn" would, so that no table
+	  gives each a slot of its own.
 	 */
-	private void setReservedWord(String t, int s)
+	private static void setReservedWord(String t, int s)
 	{
-		symbols[noOfSymbols] = new ReservedWord(t, s) ;
-		noOfSymbols++ ;
+		ReservedWord[] words = new ReservedWord[symbols.length + 1] ;
+		int n = 0 ;
+		for (int i = 0 ; i < symbols.length ; i++)
+			if (symbols[i] != null)
+				words[n++] = symbols[i] ;
+		words[n++] = new ReservedWord(t, s) ;
+		// words that hash alike in full share a slot however large the table grows
+		for (int i = 0 ; i < n - 1 ; i++)
+			if (keywordHash(words[i].text) == keywordHash(t))
+				throw new IllegalArgumentException("reserved words \"" + words[i].text + "\" and \""
+						+ t + "\" share a slot at every table size") ;
+
+		int size = 16 ;
+		ReservedWord[] table ;
+		do
+		{
+			size *= 2 ;
+			table = new ReservedWord[size] ;
+			for (int i = 0 ; i < n ; i++)
+			{
+				int slot = keywordHash(words[i].text) & (size - 1) ;
+				if (table[slot] != null)
+				{
+					table = null ;
+					break ;
+				}
+				table[slot] = words[i] ;
+			}
+		}
+		while (table == null) ;
+
+		symbols = table ;
+		symbolMask = size - 1 ;
 	} // end of method setReservedWord
 
+	/** @return The hash of a word before it is masked down to a slot. */
+	private static int keywordHash(String w)
+	{
+		return keywordSlot(w.length(), w.charAt(0), w.charAt(w.length() - 1), -1) ;
+	} // end of method keywordHash
+
+	/** Hashes a word by its length and its first and last letters, ignoring case.
 
-	/** Sets all initial variables and adds the language's reserved words to the symbol table. */
-	private void initialiseScanner()
+	  @param length The length of the word.
+	  @param first The first character of the word.
+	  @param last The last character of the word.
+	  @param mask The size of the table less one.
+	  @return The slot the word belongs in.
+	 */
+	private static int keywordSlot(int length, char first, char last, int mask)
+	{
+		return (((length * 31) + (first | 0x20)) * 31 + (last | 0x20)) & mask ;
+	} // end of method keywordSlot
+
+	/** Classifies a word read from source as a reserved word or an
+	  identifier, comparing it in place rather than lowercasing a copy.
+
+	  @param text The word as seen in source.
+	  @return The type of the reserved word, or Token.identifier.
+	 */
+	private static int classifyWord(StringBuffer text)
+	{
+		int length = text.length() ;
+		ReservedWord word = symbols[keywordSlot(length, text.charAt(0), text.charAt(length - 1), symbolMask)] ;
+		if ((word == null) || (word.text.length() != length))
+			return Token.identifier ;
+
+		for (int i = 0 ; i < length ; i++)
+		{
+			char c = text.charAt(i) ;
+			if ((c >= 'A') && (c <= 'Z'))
+				c += 'a' - 'A' ;
+			if (c != word.text.charAt(i))
+				return Token.identifier ;
+		}
+		return word.symbol ;
+	} // end of method classifyWord
+
+
+	/** Adds the language's reserved words to the symbol table. */
+	private static void initialiseScanner()
 	{
-		noOfSymbols = 0 ;
 		setReservedWord("begin", Token.beginSymbol) ;
 		setReservedWord("call", Token.callSymbol) ;
 		setReservedWord("do", Token.doSymbol) ;
@@ -95,29 +238,356 @@ public class LexicalAnalyser
 
 
 	/** Creates a new LexicalAnalyser which will run over the given file.
+	  Regular files in a supported encoding are memory-mapped and scanned
+	  byte by byte; anything else is read line by line.
 
 	  @param fileName The file to read.
 	  @throws IOException if any read errors occur during parsing.
 	 */
 	public LexicalAnalyser(String fileName) throws IOException
 	{
-		initialiseScanner() ;
+		Path path = Paths.get(fileName) ;
+		decoding = decodingFor(Charset.defaultCharset()) ;
+		if ((decoding >= 0) && Files.isRegularFile(path) && (Files.size(path) > 0))
+		{
+			sourceChannel = FileChannel.open(path, StandardOpenOption.READ) ;
+			sourceSize = sourceChannel.size() ;
+			windowEnd = 0 ;
+			mapNextWindow() ;
+		}
+		else
+		{
+			sourceFile = new BufferedReader(new FileReader(fileName)) ;
+			currentLine = sourceFile.readLine() ;
+		}
+		currentOffset = 0 ;
+		firstCall = true ;
+		currentLineNumber = 0 ;
+	} // end of constructor method
 
-		sourceFile = new BufferedReader(new FileReader(fileName)) ;
+	/** Creates a new LexicalAnalyser which will run over the given character stream.
+
+	  @param source The characters to read.
+	  @throws IOException if any read errors occur during parsing.
+	 */
+	public LexicalAnalyser(Reader source) throws IOException
+	{
+		sourceFile = new BufferedReader(source) ;
 		currentLine = sourceFile.readLine() ;
 		currentOffset = 0 ;
 		firstCall = true ;
 		currentLineNumber = 0 ;
 	} // end of constructor method
 
+	/** Creates a new LexicalAnalyser over text held in memory, starting
+	  part way through it, as an analyser that re-lexes after an edit needs.
+
+	  @param source The text to read.
+	  @param start Where to start reading: where a token starts, or whitespace before one.
+	  @param lineNumber The line number the lexer has reached at start.
+	 */
+	LexicalAnalyser(CharSequence source, int start, int lineNumber)
+	{
+		sourceChars = source ;
+		sourcePosition = start ;
+		midLine = (start > 0) && (source.charAt(start - 1) != '\n') && (source.charAt(start - 1) != '\r') ;
+		currentOffset = 0 ;
+		firstCall = true ;
+		currentLineNumber = lineNumber ;
+	} // end of constructor method
+
+	/** Creates a new LexicalAnalyser to which the source is pushed in
+	  chunks of bytes as they arrive, through push() and finish().  Tokens
+	  may be split anywhere across chunks; each is handed out once the
+	  character after it has arrived, since the scanner looks one ahead.
+
+	  @param cs The charset the source is written in: UTF-8, ISO-8859-1 or US-ASCII.
+	  @throws UnsupportedCharsetException if the source cannot be decoded a byte at a time.
+	 */
+	public LexicalAnalyser(Charset cs)
+	{
+		decoding = decodingFor(cs) ;
+		if (decoding < 0)
+			throw new UnsupportedCharsetException(cs.name()) ;
+		sourceBytes = ByteBuffer.allocate(0) ;
+		pushed = true ;
+		currentOffset = 0 ;
+		firstCall = true ;
+		currentLineNumber = 0 ;
+	} // end of constructor method
+
+	/** Appends the next chunk of a pushed source.
+
+	  @param chunk The bytes, consumed from its position to its limit.
+	  @throws IllegalStateException if this lexer is not pushed to, or finish() has been called.
+	 */
+	public void push(ByteBuffer chunk)
+	{
+		if (!pushed || pushFinished)
+			throw new IllegalStateException(pushed ? "input already finished" : "not a pushed source") ;
+
+		// keep only what is still to be scanned, growing the buffer if the chunk will not fit
+		int needed = sourceBytes.remaining() + chunk.remaining() ;
+		if (needed > sourceBytes.capacity())
+		{
+			ByteBuffer larger = ByteBuffer.allocate(Math.max(needed, 2 * sourceBytes.capacity())) ;
+			larger.put(sourceBytes) ;
+			sourceBytes = larger ;
+		}
+		else
+			sourceBytes.compact() ;
+		sourceBytes.put(chunk) ;
+		sourceBytes.flip() ;
+	} // end of method push
+
+	/** Appends the next chunk of a pushed source.
+
+	  @param bytes The array holding the chunk.
+	  @param offset Where the chunk starts.
+	  @param length The length of the chunk.
+	 */
+	public void push(byte[] bytes, int offset, int length)
+	{
+		push(ByteBuffer.wrap(bytes, offset, length)) ;
+	} // end of method push
+
+	/** Marks the end of a pushed source, so the last token can be handed out and EOF after it. */
+	public void finish()
+	{
+		pushFinished = true ;
+	} // end of method finish
+
+	/** @return The table giving each identifier scanned its number and canonical String. */
+	public IdentifierTable getIdentifierTable()
+	{
+		return identifiers ;
+	} // end of method getIdentifierTable
+
+	/** Interns identifiers in the given table from now on, so that lexers
+	  sharing a table number names alike.  A table must not be shared by
+	  lexers running on different threads.
+
+	  @param table The table to use.
+	 */
+	public void setIdentifierTable(IdentifierTable table)
+	{
+		identifiers = table ;
+	} // end of method setIdentifierTable
+
+	/** Returns how a memory-mapped source in the given charset is decoded,
+	  or -1 if it must be read through a Reader instead.
+
+	  @param cs The charset the source is written in.
+	  @return One of the decode constants, or -1.
+	 */
+	private static int decodingFor(Charset cs)
+	{
+		if (cs.equals(StandardCharsets.UTF_8))
+			return decodeUtf8 ;
+		else if (cs.equals(StandardCharsets.ISO_8859_1))
+			return decodeLatin1 ;
+		else if (cs.equals(StandardCharsets.US_ASCII))
+			return decodeAscii ;
+		else
+			return -1 ;
+	} // end of method decodingFor
+
+	/** Maps the next region of the source file, closing it once fully mapped.
+
+	  @throws IOException if the file can no longer be read.
+	 */
+	private void mapNextWindow() throws IOException
+	{
+		long length = Math.min(mapWindowSize, sourceSize - windowEnd) ;
+		sourceBytes = sourceChannel.map(FileChannel.MapMode.READ_ONLY, windowEnd, length) ;
+		windowEnd += length ;
+		if (windowEnd >= sourceSize)
+		{
+			sourceChannel.close() ;
+			sourceChannel = null ;
+		}
+	} // end of method mapNextWindow
+
+	/** Returns the next byte of a mapped source, or -1 at its end.
+
+	  @throws IOException if the file can no longer be read.
+	 */
+	private int getNextByte() throws IOException
+	{
+		if (!sourceBytes.hasRemaining())
+		{
+			if (pushed && !pushFinished)
+				throw underflow ;
+			if (sourceChannel == null)
+				return -1 ;
+			mapNextWindow() ;
+		}
+		return sourceBytes.get() & 0xff ;
+	} // end of method getNextByte
+
+	/** Consumes the next byte of a mapped source if it is a UTF-8 continuation byte.
+
+	  @return The six payload bits, or -1 if the next byte does not continue the sequence.
+	  @throws IOException if the file can no longer be read.
+	 */
+	private int getContinuationByte() throws IOException
+	{
+		int b = getNextByte() ;
+		if (b < 0)
+			return -1 ;
+		if ((b & 0xc0) != 0x80)
+		{
+			sourceBytes.position(sourceBytes.position() - 1) ;
+			return -1 ;
+		}
+		return b & 0x3f ;
+	} // end of method getContinuationByte
+
+	/** Decodes the next character of a mapped source exactly as readLine()
+	  and the line-by-line path would present it: every line, including an
+	  unterminated last one, ends with a single '\n'.
+
+	  @throws IOException if the file can no longer be read.
+	 */
+	private char getNextMappedCharacter() throws IOException
+	{
+		if (pendingCharacter != 0)
+		{
+			char c = pendingCharacter ;
+			pendingCharacter = 0 ;
+			return c ;
+		}
+
+		int b = getNextByte() ;
+		if (b < 0)
+		{
+			if (!midLine)
+			{
+				endOfInput = true ;
+				return EOF ;
+			}
+			midLine = false ;
+			return '\n' ;
+		}
+		if ((b == '\n') || (b == '\r'))
+		{
+			if (b == '\r')
+			{
+				int next = getNextByte() ;
+				if ((next >= 0) && (next != '\n'))
+					sourceBytes.position(sourceBytes.position() - 1) ;
+			}
+			midLine = false ;
+			return '\n' ;
+		}
+
+		midLine = true ;
+		if (b < 0x80)
+			return (char) b ;
+		else if (decoding == decodeLatin1)
+			return (char) b ;
+		else if (decoding == decodeAscii)
+			return REPLACEMENT ;
+
+		// multi-byte UTF-8: lead byte gives the length and the legal range of the second byte;
+		// malformed sequences become one replacement each, as the Reader's decoder does
+		int length, value, low = 0x80, high = 0xbf ;
+		if ((b >= 0xc2) && (b <= 0xdf))
+		{
+			length = 2 ;
+			value = b & 0x1f ;
+		}
+		else if ((b >= 0xe0) && (b <= 0xef))
+		{
+			length = 3 ;
+			value = b & 0x0f ;
+			if (b == 0xe0) low = 0xa0 ;
+		}
+		else if ((b >= 0xf0) && (b <= 0xf4))
+		{
+			length = 4 ;
+			value = b & 0x07 ;
+			if (b == 0xf0) low = 0x90 ;
+			if (b == 0xf4) high = 0x8f ;
+		}
+		else
+			return REPLACEMENT ;
+
+		for (int i = 1 ; i < length ; i++)
+		{
+			int c = getContinuationByte() ;
+			if ((c < 0) || ((i == 1) && (((c | 0x80) < low) || ((c | 0x80) > high))))
+			{
+				if ((c >= 0) && (i == 1))
+					sourceBytes.position(sourceBytes.position() - 1) ;
+				return REPLACEMENT ;
+			}
+			value = (value << 6) | c ;
+		}
+
+		if ((value >= Character.MIN_SURROGATE) && (value <= Character.MAX_SURROGATE))
+			return REPLACEMENT ;
+		else if (value >= Character.MIN_SUPPLEMENTARY_CODE_POINT)
+		{
+			pendingCharacter = Character.lowSurrogate(value) ;
+			return Character.highSurrogate(value) ;
+		}
+		return (char) value ;
+	} // end of method getNextMappedCharacter
+
+	/** Returns the next character of text held in memory, presenting line
+	  ends as the line-by-line path does.
+	 */
+	private char getNextSourceCharacter()
+	{
+		characterOffset = sourcePosition ;
+		if (sourcePosition >= sourceChars.length())
+		{
+			if (!midLine)
+			{
+				endOfInput = true ;
+				return EOF ;
+			}
+			midLine = false ;
+			return '\n' ;
+		}
+
+		char c = sourceChars.charAt(sourcePosition++) ;
+		if ((c == '\n') || (c == '\r'))
+		{
+			if ((c == '\r') && (sourcePosition < sourceChars.length()) && (sourceChars.charAt(sourcePosition) == '\n'))
+				sourcePosition++ ;
+			midLine = false ;
+			return '\n' ;
+		}
+		midLine = true ;
+		return c ;
+	} // end of method getNextSourceCharacter
+
+	/** Returns where the token last scanned starts in text held in memory.
+
+	  @return The offset of the token's first character in the text.
+	 */
+	int tokenOffset()
+	{
+		return tokenOffset ;
+	} // end of method tokenOffset
+
 	/** Loads the next character of the input into the buffer.
 
 	  @throws IOException in the event that something like velociraptor attack happens to the input stream.
 	 */
 	private void getNextCharacter() throws IOException
 	{
-		if (currentLine == null)
+		if (sourceBytes != null)
+			currentCharacter = getNextMappedCharacter() ;
+		else if (sourceChars != null)
+			currentCharacter = getNextSourceCharacter() ;
+		else if (currentLine == null)
+		{
+			endOfInput = true ;
 			currentCharacter = EOF ;
+		}
 		else if (currentOffset >= currentLine.length())
 		{
 			currentLine = sourceFile.readLine() ;
@@ -131,13 +601,160 @@ public class LexicalAnalyser
 		}
 	} // end of method getNextCharacter
 
+	/** Consumes the rest of a run of blanks after the current character,
+	  where the source is bytes.  The run may stop short, but never runs on
+	  into the next line. */
+	private void skipBlanks()
+	{
+		if (sourceBytes != null)
+			sourceBytes.position(scanner.skipBlanks(sourceBytes, sourceBytes.position(), sourceBytes.limit())) ;
+	} // end of method skipBlanks
+
+	/** Consumes the rest of a comment up to, but not including, its line
+	  end, where the source is bytes. */
+	private void skipComment()
+	{
+		if (sourceBytes != null)
+			sourceBytes.position(scanner.findLineEnd(sourceBytes, sourceBytes.position(), sourceBytes.limit())) ;
+	} // end of method skipComment
+
+	/** Appends the rest of a run of ASCII letters and digits, or of digits
+	  alone, after the current character to currentText, where the source
+	  is bytes.  Characters past the run are left to be read one at a time.
+
+	  @param digits Whether only digits belong to the run.
+	 */
+	private void appendRun(boolean digits)
+	{
+		if (sourceBytes == null)
+			return ;
+		int from = sourceBytes.position() ;
+		int to = digits ? scanner.spanDigits(sourceBytes, from, sourceBytes.limit())
+				: scanner.spanWord(sourceBytes, from, sourceBytes.limit()) ;
+		if (to - from > run.length)
+			run = new char[Math.max(to - from, run.length * 2)] ;
+		for (int i = from ; i < to ; i++)
+			run[i - from] = (char) sourceBytes.get(i) ;
+		currentText.append(run, 0, to - from) ;
+		sourceBytes.position(to) ;
+	} // end of method appendRun
+
+	/** Records that the token just scanned has fixed text.
+
+	  @param symbol The type of the token, typically a class constant from Token.
+	  @param text The text every token of this type has.
+	  @return The type of the token.
+	 */
+	private int fixedToken(int symbol, String text)
+	{
+		scannedText = text ;
+		return symbol ;
+	} // end of method fixedToken
+
+	/** Records that the token just scanned has its text in currentText.
+
+	  @param symbol The type of the token, typically a class constant from Token.
+	  @return The type of the token.
+	 */
+	private int textToken(int symbol)
+	{
+		scannedText = null ;
+		return symbol ;
+	} // end of method textToken
+
+	/** Scans the next token of a pushed source, putting everything back as
+	  it was if the token may run on past the input that has arrived.
+
+	  @throws IOException in the event that the file cannot be read.
+	  @return the type of the next token, or -1 if more input is needed.
+	 */
+	private int scanPushedToken() throws IOException
+	{
+		int position = sourceBytes.position() ;
+		boolean wasMidLine = midLine,
+				wasFirstCall = firstCall ;
+		char wasPending = pendingCharacter,
+				wasCurrent = currentCharacter ;
+		int wasLineNumber = currentLineNumber ;
+		try {
+			return scanToken() ;
+		} catch (InputUnderflow e) {
+			sourceBytes.position(position) ;
+			midLine = wasMidLine ;
+			firstCall = wasFirstCall ;
+			pendingCharacter = wasPending ;
+			currentCharacter = wasCurrent ;
+			currentLineNumber = wasLineNumber ;
+			return -1 ;
+		}
+	} // end of method scanPushedToken
+
 	/** Returns the next token from the source file.  Repeatedly calling this
-	  will return each token in the file, and eventually null.
+	  will return each token in the file, and eventually null.  For a pushed
+	  source, null means the next token has not fully arrived yet.
 
 	  @throws IOException in the event that the file cannot be read.
 	  @return the next token from the source file.
 	 */
 	public Token getNextToken() throws IOException
+	{
+		int symbol = pushed ? scanPushedToken() : scanToken() ;
+		if (symbol < 0)
+			return null ;
+		if (scannedText != null)
+			return new Token(symbol, scannedText, currentLineNumber) ;
+		if (symbol != Token.identifier)
+			return new Token(symbol, currentText, currentLineNumber) ;
+
+		// every mention of a name shares the one String
+		int id = identifiers.intern(currentText) ;
+		Token t = new Token(symbol, identifiers.name(id), currentLineNumber) ;
+		t.id = id ;
+		return t ;
+	} // end of method getNextToken
+
+	/** Scans tokens into the given buffer until it holds the given number
+	  more or the end of the source is reached.  Nothing is allocated once
+	  the buffer has grown to size, but the first String of each new name.
+
+	  @param buffer The buffer to append tokens to.
+	  @param max The most tokens to scan.
+	  @return The number of tokens appended; fewer than max only at EOF, or
+	  for a pushed source when the next token has not fully arrived.
+	  @throws IOException in the event that the file cannot be read.
+	 */
+	public int fill(TokenBuffer buffer, int max) throws IOException
+	{
+		int n = 0 ;
+		while (n < max)
+		{
+			int symbol = pushed ? scanPushedToken() : scanToken() ;
+			if (symbol < 0)
+				break ;
+			if (scannedText != null)
+				buffer.add(symbol, scannedText, currentLineNumber) ;
+			else if (symbol == Token.identifier)
+			{
+				// added as its canonical name, which the buffer hands back rather than a copy
+				int id = identifiers.intern(currentText) ;
+				buffer.add(symbol, identifiers.name(id), currentLineNumber, id) ;
+			}
+			else
+				buffer.add(symbol, currentText, currentLineNumber) ;
+			n++ ;
+			if (symbol == Token.eofSymbol)
+				break ;
+		}
+		return n ;
+	} // end of method fill
+
+	/** Scans the next token, leaving its text in scannedText if it is fixed
+	  and in currentText otherwise.
+
+	  @throws IOException in the event that the file cannot be read.
+	  @return the type of the next token.
+	 */
+	private int scanToken() throws IOException
 	{
 		if (firstCall)
 		{
@@ -150,20 +767,25 @@ public class LexicalAnalyser
 		{
 			if (currentCharacter == '-')
 			{
+				tokenOffset = characterOffset ;
 				getNextCharacter() ;
 				if (currentCharacter == '-')
 				{
+					skipComment() ;
 					while (currentCharacter != '\n')
 						getNextCharacter() ;
 				}
 				else
-					return new Token(Token.minusSymbol, "-", currentLineNumber) ;
+					return fixedToken(Token.minusSymbol, "-") ;
 			}
 
 			if (currentCharacter == '\n')
 				currentLineNumber++ ;
+			else
+				skipBlanks() ;
 			getNextCharacter() ;
 		}
+		tokenOffset = characterOffset ;
 
 		if (Character.isLetter(currentCharacter))
 		{
@@ -172,19 +794,11 @@ public class LexicalAnalyser
 					(Character.isDigit(currentCharacter)))
 			{
 				currentText.append(currentCharacter) ;
+				appendRun(false) ;
 				getNextCharacter() ;
 			}
 
-			int i = 0 ;
-			String t = (new String(currentText)).toLowerCase() ;
-			while ((i < noOfSymbols) &&
-					(!t.equals(symbols[i].text)))
-				i++ ;
-
-			if (i < noOfSymbols)
-				return new Token(symbols[i].symbol, currentText, currentLineNumber) ;
-			else
-				return new Token(Token.identifier, currentText, currentLineNumber) ;
+			return textToken(classifyWord(currentText)) ;
 		}
 		else if (Character.isDigit(currentCharacter))
 		{
@@ -192,6 +806,7 @@ public class LexicalAnalyser
 			while (Character.isDigit(currentCharacter))
 			{
 				currentText.append(currentCharacter) ;
+				appendRun(true) ;
 				getNextCharacter() ;
 			}
 			if (currentCharacter == '.')
@@ -201,22 +816,29 @@ public class LexicalAnalyser
 				while (Character.isDigit(currentCharacter))
 				{
 					currentText.append(currentCharacter) ;
+					appendRun(true) ;
 					getNextCharacter() ;
 				}
 			}
-			return new Token(Token.numberConstant, currentText, currentLineNumber) ;
+			return textToken(Token.numberConstant) ;
 		}
 		else if (currentCharacter == '"')
 		{
 			getNextCharacter() ;
 			currentText.setLength(0) ;
-			while (currentCharacter != '"')
+			while ((currentCharacter != '"') && !endOfInput)
 			{
 				currentText.append(currentCharacter) ;
 				getNextCharacter() ;
 			}
+			// a string still open at the end of the input is an error, not a hang
+			if (endOfInput)
+			{
+				currentText.setLength(0) ;
+				return textToken(Token.errorSymbol) ;
+			}
 			getNextCharacter() ;
-			return new Token(Token.stringConstant, currentText, currentLineNumber) ;
+			return textToken(Token.stringConstant) ;
 		}
 		else if (currentCharacter == ':')
 		{
@@ -224,10 +846,10 @@ public class LexicalAnalyser
 			if (currentCharacter == '=')
 			{
 				getNextCharacter() ;
-				return new Token(Token.becomesSymbol, ":=", currentLineNumber) ;
+				return fixedToken(Token.becomesSymbol, ":=") ;
 			}
 			else
-				return new Token(Token.colonSymbol, ":", currentLineNumber) ;
+				return fixedToken(Token.colonSymbol, ":") ;
 		}
 		else if (currentCharacter == '>')
 		{
@@ -235,10 +857,10 @@ public class LexicalAnalyser
 			if (currentCharacter == '=')
 			{
 				getNextCharacter() ;
-				return new Token(Token.greaterEqualSymbol, ">=", currentLineNumber) ;
+				return fixedToken(Token.greaterEqualSymbol, ">=") ;
 			}
 			else
-				return new Token(Token.greaterThanSymbol, ">", currentLineNumber) ;
+				return fixedToken(Token.greaterThanSymbol, ">") ;
 		}
 		else if (currentCharacter == '<')
 		{
@@ -246,10 +868,10 @@ public class LexicalAnalyser
 			if (currentCharacter == '=')
 			{
 				getNextCharacter() ;
-				return new Token(Token.lessEqualSymbol, "<=", currentLineNumber) ;
+				return fixedToken(Token.lessEqualSymbol, "<=") ;
 			}
 			else
-				return new Token(Token.lessThanSymbol, "<", currentLineNumber) ;
+				return fixedToken(Token.lessThanSymbol, "<") ;
 		}
 		else if (currentCharacter == '/')
 		{
@@ -257,57 +879,57 @@ public class LexicalAnalyser
 			if (currentCharacter == '=')
 			{
 				getNextCharacter() ;
-				return new Token(Token.notEqualSymbol, "/=", currentLineNumber) ;
+				return fixedToken(Token.notEqualSymbol, "/=") ;
 			}
 			else
-				return new Token(Token.divideSymbol, "/", currentLineNumber) ;
+				return fixedToken(Token.divideSymbol, "/") ;
 		}
 		else if (currentCharacter == '=')
 		{
 			getNextCharacter() ;
-			return new Token(Token.equalSymbol, "=", currentLineNumber) ;
+			return fixedToken(Token.equalSymbol, "=") ;
 		}
 		else if (currentCharacter == ',')
 		{
 			getNextCharacter() ;
-			return new Token(Token.commaSymbol, ",", currentLineNumber) ;
+			return fixedToken(Token.commaSymbol, ",") ;
 		}
 		else if (currentCharacter == ';')
 		{
 			getNextCharacter() ;
-			return new Token(Token.semicolonSymbol, ";", currentLineNumber) ;
+			return fixedToken(Token.semicolonSymbol, ";") ;
 		}
 		else if (currentCharacter == '+')
 		{
 			getNextCharacter() ;
-			return new Token(Token.plusSymbol, "+", currentLineNumber) ;
+			return fixedToken(Token.plusSymbol, "+") ;
 		}
 		else if (currentCharacter == '*')
 		{
 			getNextCharacter() ;
-			return new Token(Token.timesSymbol, "*", currentLineNumber) ;
+			return fixedToken(Token.timesSymbol, "*") ;
 		}
 		else if (currentCharacter == '(')
 		{
 			getNextCharacter() ;
-			return new Token(Token.leftParenthesis, "(", currentLineNumber) ;
+			return fixedToken(Token.leftParenthesis, "(") ;
 		}
 		else if (currentCharacter == ')')
 		{
 			getNextCharacter() ;
-			return new Token(Token.rightParenthesis, ")", currentLineNumber) ;
+			return fixedToken(Token.rightParenthesis, ")") ;
 		}
 		else if (currentCharacter == EOF)
 		{
-			return new Token(Token.eofSymbol, "", currentLineNumber) ;
+			return fixedToken(Token.eofSymbol, "") ;
 		}
 		else
 		{
-			currentText = new StringBuffer(currentCharacter) ;
+			currentText.setLength(0) ;
 			getNextCharacter() ;
-			return new Token(Token.errorSymbol, currentText, currentLineNumber) ;
+			return textToken(Token.errorSymbol) ;
 		}
-	} // end of method getNextToken
+	} // end of method scanToken
 
 	/** Entry point to text Lexer */
 	public static void main(String[] args) throws IOException
@@ -0,0 +1,316 @@
+
+/**
+ *
+ * A syntax analyser that parses the statements of one large source on
+ * several threads at once.  A source is one statement list, so however
+ * big it grows it would otherwise parse on one thread from start to end.
+ *
+ * The tokens are read in full first, then scanned for the ";" between the
+ * statements of the outermost statement list, keeping count of the
+ * if/end if, while/end loop, for/end loop and do/until that open and close
+ * in between.  Runs of statements are handed to a pool of workers, which
+ * parse each on its own and record its trace.  The statement list itself
+ * is then parsed as ever, in order, but where a statement is reached that
+ * a worker parsed in full, its trace is replayed at the statement's depth
+ * instead of parsing it again.  A statement a worker could not parse, or
+ * that did not end where the scan said it would, is parsed again in its
+ * place, so the trace and error report are the same as SyntaxAnalyser
+ * gives.
+ *
+ **/
+
+import java.io.* ;
+import java.util.* ;
+import java.util.concurrent.* ;
+
+public class ParallelAnalyser extends SyntaxAnalyser
+{
+	/** The fewest tokens worth handing to a worker at once. */
+	private static final int chunkTokens = 1 << 14 ;
+	/** How many runs of statements per worker may be parsed ahead of the statement list. */
+	private static final int lookahead = 4 ;
+
+	/** Hands out tokens start to limit-1 of a buffer, then the token at
+	  limit ever after, counting every token handed out. */
+	private static class Slice implements TokenSource
+	{
+		final TokenBuffer tokens ;
+		int position, limit ;
+
+		Slice(TokenBuffer tokens)
+		{
+			this.tokens = tokens ;
+		} // end of constructor method
+
+		public Token getNextToken()
+		{
+			return tokens.token(Math.min(position++, limit)) ;
+		} // end of method getNextToken
+	} // end of class Slice
+
+	/** A run of statements of the outermost statement list, parsed on a worker. */
+	private static class Chunk
+	{
+		/** The index of its first statement. */
+		final int first ;
+		/** For each statement, whether it parsed in full and ended where expected. */
+		final boolean[] parsed ;
+		/** For each statement parsed, its trace at depth 0, if tracing. */
+		final TraceRecorder[] traces ;
+		/** For each statement parsed, the most non-terminals it had open at once. */
+		final int[] depths ;
+
+		Chunk(int first, int count)
+		{
+			this.first = first ;
+			parsed = new boolean[count] ;
+			traces = new TraceRecorder[count] ;
+			depths = new int[count] ;
+		} // end of constructor method
+	} // end of class Chunk
+
+	private final TokenBuffer tokens ;
+	private final String filename ;
+	private final ExecutorService pool ;
+	/** The most runs of statements in flight ahead of the statement list. */
+	private final int window ;
+
+	/* Found by split(): where each statement starts, and the index of the ";" or "end" after it. */
+	private int[] starts = new int[64],
+			ends = new int[64] ;
+	private int statements ;
+
+	/** The runs of statements handed to workers and not yet reached, in order. */
+	private ArrayDeque<Future<Chunk>> pending = new ArrayDeque<Future<Chunk>>() ;
+	/** The first statement not yet handed to a worker. */
+	private int submitted ;
+	/** The run of statements the statement list has reached, or null. */
+	private Chunk current ;
+
+	/** Creates an analyser over a source read in full.
+
+	  @param tokens Every token of the source, up to and including EOF.
+	  @param filename The name errors are reported against.
+	  @param pool Where the statements are parsed.
+	  @param parallelism How many of the pool's threads the source may keep busy.
+	 */
+	public ParallelAnalyser(TokenBuffer tokens, String filename, ExecutorService pool, int parallelism)
+	{
+		super(tokens, filename) ;
+		this.tokens = tokens ;
+		this.filename = filename ;
+		this.pool = pool ;
+		window = Math.max(1, parallelism) * lookahead ;
+	} // end of constructor method
+
+	/** Creates an analyser over the named file, reading its tokens in full.
+
+	  @param filename The file to analyse, and the name errors are reported against.
+	  @param pool Where the statements are parsed.
+	  @param parallelism How many of the pool's threads the source may keep busy.
+	  @throws IOException in the event that the file cannot be read.
+	 */
+	public ParallelAnalyser(String filename, ExecutorService pool, int parallelism) throws IOException
+	{
+		this(TokenBuffer.readAll(new LexicalAnalyser(filename)), filename, pool, parallelism) ;
+	} // end of constructor method
+
+	/** Parses the source, its statements on the pool's threads.
+
+	  @param ps The PrintStream object compilation exceptions are reported to.
+	  @return true if the source parsed without error.
+	  @throws IOException in the event that the trace can no longer be written.
+	 */
+	public boolean parse(PrintStream ps) throws IOException
+	{
+		tokens.seek(0) ;
+		split() ;
+		submitted = 0 ;
+		current = null ;
+		// workers record traces only if this parse is to write one
+		submit(traceSink != null) ;
+		try {
+			return super.parse(ps) ;
+		} finally {
+			// a parse that stopped early leaves statements no one will read
+			for (Future<Chunk> f : pending)
+				f.cancel(false) ;
+			pending.clear() ;
+			current = null ;
+		}
+	} // end of method parse
+
+	/** Finds the statements of the outermost statement list, stopping early
+	  at anything that cannot be part of a valid one. */
+	private void split()
+	{
+		statements = 0 ;
+		if ((tokens.size() == 0) || (tokens.symbol(0) != Token.beginSymbol))
+			return ;
+		int open = 0, previous = -1, start = 1 ;
+		for (int i = 1 ; i < tokens.size() ; i++)
+		{
+			int s = tokens.symbol(i) ;
+			if (open == 0)
+			{
+				if ((s == Token.semicolonSymbol) || (s == Token.endSymbol))
+				{
+					if (statements == starts.length)
+					{
+						starts = Arrays.copyOf(starts, statements * 2) ;
+						ends = Arrays.copyOf(ends, statements * 2) ;
+					}
+					starts[statements] = start ;
+					ends[statements] = i ;
+					statements++ ;
+					if (s == Token.endSymbol)
+						return ;
+					start = i + 1 ;
+					previous = s ;
+					continue ;
+				}
+				if ((s == Token.elseSymbol) || (s == Token.untilSymbol))
+					return ;
+			}
+			if ((s == Token.ifSymbol) || (s == Token.whileSymbol) || (s == Token.forSymbol)
+					|| ((s == Token.doSymbol) && (previous != Token.rightParenthesis)))
+				// a "do" after ")" belongs to a for statement, already counted
+				open++ ;
+			else if (s == Token.endSymbol)
+			{
+				open-- ;
+				// the word after "end" closes the statement rather than opening another
+				int next = (i + 1 < tokens.size()) ? tokens.symbol(i + 1) : -1 ;
+				if ((next == Token.ifSymbol) || (next == Token.loopSymbol))
+					s = tokens.symbol(++i) ;
+			}
+			else if (s == Token.untilSymbol)
+				open-- ;
+			else if (s == Token.eofSymbol)
+				return ;
+			previous = s ;
+		}
+	} // end of method split
+
+	/** Hands runs of statements to the pool until the window is full.
+
+	  @param record Whether the workers record the statements' traces.
+	 */
+	private void submit(final boolean record)
+	{
+		while ((submitted < statements) && (pending.size() < window))
+		{
+			final int first = submitted ;
+			int size = 0 ;
+			while ((submitted < statements) && (size < chunkTokens))
+			{
+				size += ends[submitted] - starts[submitted] + 1 ;
+				submitted++ ;
+			}
+			final int count = submitted - first ;
+			pending.add(pool.submit(new Callable<Chunk>()
+			{
+				public Chunk call() throws IOException
+				{
+					return parseChunk(first, count, record) ;
+				} // end of method call
+			})) ;
+		}
+	} // end of method submit
+
+	/** Runs on a worker: parses each of a run of statements on its own. */
+	private Chunk parseChunk(int first, int count, boolean record) throws IOException
+	{
+		Chunk chunk = new Chunk(first, count) ;
+		Slice slice = new Slice(tokens) ;
+		SyntaxAnalyser parser = new SyntaxAnalyser(slice, filename) ;
+		parser.myGenerate = new Generate() ;
+		for (int i = 0 ; i < count ; i++)
+		{
+			TraceRecorder trace = record ? new TraceRecorder() : null ;
+			parser.myGenerate.setSink(trace) ;
+			parser.tracing = record ;
+			slice.position = starts[first + i] ;
+			slice.limit = ends[first + i] ;
+			parser.nextToken = slice.getNextToken() ;
+			boolean whole ;
+			try {
+				// it must have stopped at the ";" or "end" after it, without taking it
+				whole = parser.isolatedStatement() && (slice.position == slice.limit + 1) ;
+			} catch (StackOverflowError e) {
+				// left to the statement list, to fail there as it would have anyway
+				whole = false ;
+			}
+			if (whole)
+			{
+				chunk.parsed[i] = true ;
+				chunk.traces[i] = trace ;
+				chunk.depths[i] = parser.getMaxDepth() ;
+			}
+		}
+		return chunk ;
+	} // end of method parseChunk
+
+	/** Replays a statement a worker parsed, or parses it here if none did. */
+	void outermostStatement(int tabs) throws IOException, CompilationException
+	{
+		int start = tokens.position() - 1 ;
+		int i = find(start) ;
+		if (i < 0)
+		{
+			super.outermostStatement(tabs) ;
+			return ;
+		}
+		if (tracing)
+			current.traces[i].replay(myGenerate.sink, tabs) ;
+		reachedDepth(current.depths[i]) ;
+		int end = ends[current.first + i] ;
+		tokens.seek(end + 1) ;
+		resumeAt(tokens.token(end), end - start) ;
+	} // end of method outermostStatement
+
+	/** @return The index within current of the statement a worker parsed
+	  that starts at the given token, or -1 if there is none. */
+	private int find(int start) throws IOException
+	{
+		while (true)
+		{
+			if (current != null)
+			{
+				int last = current.first + current.parsed.length - 1 ;
+				if (starts[last] >= start)
+				{
+					// statements are in token order, so a binary search finds it
+					int i = Arrays.binarySearch(starts, current.first, last + 1, start) ;
+					if ((i < 0) || !current.parsed[i - current.first])
+						return -1 ;
+					return i - current.first ;
+				}
+			}
+			if (pending.isEmpty())
+				return -1 ;
+			current = await(pending.poll()) ;
+			submit(tracing) ;
+		}
+	} // end of method find
+
+	/** Waits for a worker, rethrowing whatever stopped it. */
+	private static Chunk await(Future<Chunk> future) throws IOException
+	{
+		try {
+			return future.get() ;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt() ;
+			throw new InterruptedIOException("interrupted waiting for worker") ;
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause() ;
+			if (cause instanceof IOException)
+				throw (IOException) cause ;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause ;
+			if (cause instanceof Error)
+				throw (Error) cause ;
+			throw new IOException(cause) ;
+		}
+	} // end of method await
+} // end of class ParallelAnalyser
@@ -0,0 +1,334 @@
+
+/**
+ *
+ * Lexes one large source on several threads at once.  The source is cut
+ * into chunks just after a line end, and each chunk is decoded and lexed
+ * on a fork/join pool as if it were a source of its own.  Cut there, a
+ * chunk can only be lexed wrongly if a string constant runs on into it
+ * from the chunk before, since comments and every other token end at the
+ * end of a line.
+ *
+ * The chunks are then read in order.  Each chunk's line numbers are
+ * counted from its start, and the lines of the chunks before it are added
+ * to them.  Where a chunk ends inside a string constant, the string is
+ * carried on into the chunks after it, and the chunk in which it closes is
+ * lexed again from the string's start.  Identifiers are numbered as they
+ * are handed out, so the tokens, their lines and their identifier numbers
+ * are exactly those LexicalAnalyser gives.
+ *
+ **/
+
+import java.io.* ;
+import java.nio.* ;
+import java.nio.channels.* ;
+import java.nio.charset.* ;
+import java.nio.file.* ;
+import java.util.* ;
+import java.util.concurrent.* ;
+
+public class ParallelLexer implements TokenSource
+{
+	/** The size of source each chunk is cut near unless told otherwise. */
+	public static final int defaultChunkSize = 1 << 20 ;
+	/** How many chunks per thread of the pool may be lexed ahead of the reader. */
+	private static final int lookahead = 2 ;
+
+	/** The tokens of one chunk, lexed as if it started outside any token. */
+	private static class Chunk
+	{
+		/** The chunk's text, decoded. */
+		String text ;
+		/** Its tokens, the first count of which belong to the source. */
+		TokenBuffer tokens = new TokenBuffer() ;
+		int count ;
+		/** The line reached at its end. */
+		int lines ;
+		/** Where a string constant still open at its end starts, or -1. */
+		int openString = -1 ;
+		/** The line that string is on. */
+		int openLine ;
+	} // end of class Chunk
+
+	/** Lexes the whole source on the calling thread instead, where it cannot be cut up. */
+	private LexicalAnalyser serial ;
+
+	/* The source, and where each chunk starts; the last entry is its end. */
+	private ByteBuffer source ;
+	private Charset charset ;
+	private int[] bounds ;
+	private int chunks ;
+
+	private ExecutorService pool ;
+	/** The most chunks in flight ahead of the reader. */
+	private int window ;
+	/** The chunks handed to the pool and not yet read, in order. */
+	private ArrayDeque<Future<Chunk>> pending = new ArrayDeque<Future<Chunk>>() ;
+	/** The first chunk not yet handed to the pool. */
+	private int submitted ;
+	/** The number of chunks read. */
+	private int read ;
+
+	/* The tokens being handed out, and what is added to their line numbers. */
+	private TokenBuffer current ;
+	private int count,
+			position,
+			base ;
+	/** The line reached at the end of the chunks read. */
+	private int line ;
+	/** A string constant run on from the chunks read, from its opening quote, or null. */
+	private StringBuilder carry ;
+	private int carryLine ;
+	private Token eof ;
+	/** The names of the identifiers handed out. */
+	private IdentifierTable identifiers = new IdentifierTable() ;
+
+	/** Creates a lexer over the named file in the default charset,
+	  lexing on the common fork/join pool.
+
+	  @param fileName The file to read.
+	  @throws IOException if the file cannot be read.
+	 */
+	public ParallelLexer(String fileName) throws IOException
+	{
+		this(fileName, ForkJoinPool.commonPool(), defaultChunkSize) ;
+	} // end of constructor method
+
+	/** Creates a lexer over the named file in the default charset.  A
+	  file that is empty, not a regular file, larger than can be mapped at
+	  once or in a charset other than UTF-8, ISO-8859-1 or US-ASCII is lexed
+	  on the calling thread by a LexicalAnalyser instead.
+
+	  @param fileName The file to read.
+	  @param pool Where the chunks are lexed.
+	  @param chunkSize The size of source each chunk is cut near.
+	  @throws IOException if the file cannot be read.
+	 */
+	public ParallelLexer(String fileName, ExecutorService pool, int chunkSize) throws IOException
+	{
+		Path path = Paths.get(fileName) ;
+		Charset cs = Charset.defaultCharset() ;
+		if (!divisible(cs) || !Files.isRegularFile(path) || (Files.size(path) == 0)
+				|| (Files.size(path) > Integer.MAX_VALUE))
+		{
+			serial = new LexicalAnalyser(fileName) ;
+			return ;
+		}
+		ByteBuffer bytes ;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()) ;
+		}
+		start(bytes, cs, pool, chunkSize) ;
+	} // end of constructor method
+
+	/** Creates a lexer over a source held in memory.
+
+	  @param source The source, from its position to its limit.
+	  @param cs The charset the source is written in: UTF-8, ISO-8859-1 or US-ASCII.
+	  @param pool Where the chunks are lexed.
+	  @param chunkSize The size of source each chunk is cut near.
+	  @throws UnsupportedCharsetException if the source cannot be cut at line ends.
+	 */
+	public ParallelLexer(ByteBuffer source, Charset cs, ExecutorService pool, int chunkSize)
+	{
+		if (!divisible(cs))
+			throw new UnsupportedCharsetException(cs.name()) ;
+		start(source.slice(), cs, pool, chunkSize) ;
+	} // end of constructor method
+
+	/** @return Whether a byte that is a line feed is one in every source in the given charset. */
+	private static boolean divisible(Charset cs)
+	{
+		return cs.equals(StandardCharsets.UTF_8) || cs.equals(StandardCharsets.ISO_8859_1)
+				|| cs.equals(StandardCharsets.US_ASCII) ;
+	} // end of method divisible
+
+	/** Cuts the source into chunks and starts lexing the first of them. */
+	private void start(ByteBuffer bytes, Charset cs, ExecutorService pool, int chunkSize)
+	{
+		source = bytes ;
+		charset = cs ;
+		this.pool = pool ;
+		int threads = (pool instanceof ForkJoinPool) ? ((ForkJoinPool) pool).getParallelism()
+				: Runtime.getRuntime().availableProcessors() ;
+		window = Math.max(1, threads) * lookahead ;
+
+		int size = bytes.limit() ;
+		chunkSize = Math.max(1, chunkSize) ;
+		bounds = new int[Math.max(2, size / chunkSize + 2)] ;
+		int at = 0 ;
+		do
+		{
+			int end = (size - at <= chunkSize) ? size : at + chunkSize ;
+			// cut just after a line end, so that no chunk starts inside a line
+			while ((end < size) && (bytes.get(end - 1) != '\n'))
+				end++ ;
+			if (chunks + 1 == bounds.length)
+				bounds = Arrays.copyOf(bounds, bounds.length * 2) ;
+			bounds[chunks++] = at ;
+			at = end ;
+		}
+		while (at < size) ;
+		bounds[chunks] = size ;
+		submit() ;
+	} // end of method start
+
+	/** @return The table giving each identifier handed out its number and canonical String. */
+	public IdentifierTable getIdentifierTable()
+	{
+		return (serial != null) ? serial.getIdentifierTable() : identifiers ;
+	} // end of method getIdentifierTable
+
+	/** Returns the next token, waiting for its chunk to be lexed if need be.
+
+	  @throws IOException in the event that the source cannot be read.
+	  @return the next token.
+	 */
+	public Token getNextToken() throws IOException
+	{
+		if (serial != null)
+			return serial.getNextToken() ;
+		while (eof == null)
+		{
+			if (position < count)
+			{
+				Token t = current.token(position++) ;
+				t.lineNumber += base ;
+				if (t.symbol == Token.identifier)
+				{
+					// numbered here rather than by the chunk, so names are numbered in order
+					t.id = identifiers.intern(t.text) ;
+					t.text = identifiers.name(t.id) ;
+				}
+				else if (t.symbol == Token.eofSymbol)
+					eof = t ;
+				return t ;
+			}
+			nextChunk() ;
+		}
+		return eof ;
+	} // end of method getNextToken
+
+	/** Hands chunks to the pool until the window is full. */
+	private void submit()
+	{
+		while ((submitted < chunks) && (pending.size() < window))
+		{
+			final int chunk = submitted++ ;
+			pending.add(pool.submit(new Callable<Chunk>()
+			{
+				public Chunk call() throws IOException
+				{
+					ByteBuffer bytes = source.duplicate() ;
+					bytes.limit(bounds[chunk + 1]).position(bounds[chunk]) ;
+					return lex(charset.decode(bytes).toString(), 0, chunk == chunks - 1) ;
+				} // end of method call
+			})) ;
+		}
+	} // end of method submit
+
+	/** Lexes a chunk of text on its own.
+
+	  @param text The chunk's text.
+	  @param lineNumber The line the text starts on.
+	  @param last Whether the text runs to the end of the source.
+	  @return Its tokens; those of a chunk that is not the last stop short of
+	  EOF, and of a string constant still open at the end.
+	 */
+	private static Chunk lex(String text, int lineNumber, boolean last) throws IOException
+	{
+		Chunk chunk = new Chunk() ;
+		chunk.text = text ;
+		LexicalAnalyser lex = new LexicalAnalyser(text, 0, lineNumber) ;
+		TokenBuffer tokens = chunk.tokens ;
+		while (true)
+		{
+			lex.fill(tokens, 1) ;
+			int i = tokens.size() - 1 ;
+			int at = lex.tokenOffset() ;
+			if (tokens.symbol(i) == Token.eofSymbol)
+			{
+				chunk.lines = tokens.line(i) ;
+				// a NUL ends the source where it is, wherever that is
+				if (last || (at < text.length()))
+				{
+					chunk.count = tokens.size() ;
+					chunk.openString = -1 ;
+				}
+				else if (chunk.openString >= 0)
+					chunk.count = tokens.size() - 2 ;
+				else
+					chunk.count = tokens.size() - 1 ;
+				return chunk ;
+			}
+			if ((tokens.symbol(i) == Token.errorSymbol) && (at < text.length()) && (text.charAt(at) == '"'))
+			{
+				chunk.openString = at ;
+				chunk.openLine = tokens.line(i) ;
+			}
+		}
+	} // end of method lex
+
+	/** Moves on to the tokens of the next chunk, putting right any that a
+	  string constant run on from the chunk before makes wrong. */
+	private void nextChunk() throws IOException
+	{
+		if (read == chunks)
+		{
+			// not reached, as the last chunk ends with EOF
+			eof = new Token(Token.eofSymbol, "", line) ;
+			return ;
+		}
+		Chunk chunk = await(pending.poll()) ;
+		read++ ;
+		submit() ;
+		boolean last = read == chunks ;
+
+		if (carry != null)
+		{
+			if ((chunk.text.indexOf('"') < 0) && !last)
+			{
+				// the string runs on through the whole chunk
+				carry.append(chunk.text) ;
+				count = position = 0 ;
+				return ;
+			}
+			String text = carry.append(chunk.text).toString() ;
+			carry = null ;
+			chunk = lex(text, carryLine, last) ;
+			base = 0 ;
+		}
+		else
+			base = line ;
+
+		current = chunk.tokens ;
+		count = chunk.count ;
+		position = 0 ;
+		if (chunk.openString >= 0)
+		{
+			carry = new StringBuilder().append(chunk.text, chunk.openString, chunk.text.length()) ;
+			carryLine = base + chunk.openLine ;
+		}
+		else
+			line = base + chunk.lines ;
+	} // end of method nextChunk
+
+	/** Waits for a chunk, rethrowing whatever stopped it being lexed. */
+	private static Chunk await(Future<Chunk> future) throws IOException
+	{
+		try {
+			return future.get() ;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt() ;
+			throw new InterruptedIOException("interrupted waiting for a chunk") ;
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause() ;
+			if (cause instanceof IOException)
+				throw (IOException) cause ;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause ;
+			if (cause instanceof Error)
+				throw (Error) cause ;
+			throw new IOException(cause) ;
+		}
+	} // end of method await
+} // end of class ParallelLexer
@@ -0,0 +1,302 @@
+
+/**
+ *
+ * Builds the parse tree of a source from the events of its parse, for tools
+ * that need the structure without scraping the 312 trace.  Nodes are held
+ * in parallel primitive arrays rather than as objects: node n has a kind,
+ * a parent, a first child and a next sibling, and a terminal node the index
+ * of its token in a TokenBuffer.  Nodes are numbered in the order they
+ * start, so a node's descendants follow it.
+ *
+ * Pass a ParseTree to AbstractSyntaxAnalyser.parse() as its trace sink.
+ * The roots are the statement part and the EOF token after it.  Text copied
+ * into the trace as it stands, such as the markers between files in a
+ * binary trace, is kept as a node of its own where it falls.
+ *
+ **/
+
+import java.util.* ;
+
+public class ParseTree extends AbstractTraceSink
+{
+	/** No node: the parent of a root, the child of a leaf, the sibling of a last child. */
+	public static final int none = -1 ;
+
+	/* One entry per node.  A kind of 0 or more is a non-terminal's name; a
+	   negative kind is a terminal, its token's symbol negated, or text. */
+	private int[] kinds = new int[256] ;
+	private int[] parents = new int[256] ;
+	private int[] firstChildren = new int[256] ;
+	private int[] nextSiblings = new int[256] ;
+	private int[] tokenIndexes = new int[256] ;
+	/** The number of nodes. */
+	private int size ;
+	/** The kind of a text node, whose tokenIndexes entry indexes texts. */
+	private static final int textKind = Integer.MIN_VALUE ;
+	/** The text of every text node. */
+	private ArrayList<String> texts = new ArrayList<String>() ;
+
+	/** The text of every terminal. */
+	private TokenBuffer tokens = new TokenBuffer() ;
+
+	/* Non-terminal names, numbered in the order first seen. */
+	private ArrayList<String> names = new ArrayList<String>() ;
+	private HashMap<String, Integer> nameNumbers = new HashMap<String, Integer>() ;
+
+	/* The non-terminals started and not yet finished, innermost last, with the last child of each. */
+	private int[] open = new int[64] ;
+	private int[] lastChildren = new int[64] ;
+	private int depth ;
+	/** The last root, which the next root follows. */
+	private int lastRoot = none ;
+	/** Did the parse succeed? */
+	private boolean complete ;
+	/** The number of nodes added before the parse was reported to succeed, so text after it stays after it. */
+	private int successAt ;
+
+	/** Adds a node under the innermost open non-terminal.
+
+	  @param kind The kind of the node.
+	  @param token The index of its token, or none.
+	  @return The node's number.
+	 */
+	private int addNode(int kind, int token)
+	{
+		if (size == kinds.length)
+		{
+			int capacity = size * 2 ;
+			kinds = Arrays.copyOf(kinds, capacity) ;
+			parents = Arrays.copyOf(parents, capacity) ;
+			firstChildren = Arrays.copyOf(firstChildren, capacity) ;
+			nextSiblings = Arrays.copyOf(nextSiblings, capacity) ;
+			tokenIndexes = Arrays.copyOf(tokenIndexes, capacity) ;
+		}
+		int n = size++ ;
+		kinds[n] = kind ;
+		firstChildren[n] = none ;
+		nextSiblings[n] = none ;
+		tokenIndexes[n] = token ;
+
+		if (depth == 0)
+		{
+			parents[n] = none ;
+			if (lastRoot != none)
+				nextSiblings[lastRoot] = n ;
+			lastRoot = n ;
+		}
+		else
+		{
+			int parent = open[depth - 1] ;
+			parents[n] = parent ;
+			if (lastChildren[depth - 1] == none)
+				firstChildren[parent] = n ;
+			else
+				nextSiblings[lastChildren[depth - 1]] = n ;
+			lastChildren[depth - 1] = n ;
+		}
+		return n ;
+	} // end of method addNode
+
+	/** Adds text copied into the trace as it stands, such as by insertText(), as a text node. */
+	protected void append(String s)
+	{
+		texts.add(s) ;
+		addNode(textKind, texts.size() - 1) ;
+	} // end of method append
+
+	protected void append(char c)
+	{
+		append(String.valueOf(c)) ;
+	} // end of method append
+
+	/** Indentation follows from the shape of the tree, so is not kept. */
+	public void indent(int depth)
+	{
+	} // end of method indent
+
+	public void insertTerminal(Token token)
+	{
+		tokens.add(token.symbol, token.text, token.lineNumber, token.id) ;
+		addNode(-token.symbol, tokens.size() - 1) ;
+	} // end of method insertTerminal
+
+	public void commenceNonterminal(String name)
+	{
+		Integer number = nameNumbers.get(name) ;
+		if (number == null)
+		{
+			number = names.size() ;
+			names.add(name) ;
+			nameNumbers.put(name, number) ;
+		}
+		int n = addNode(number, none) ;
+
+		if (depth == open.length)
+		{
+			open = Arrays.copyOf(open, depth * 2) ;
+			lastChildren = Arrays.copyOf(lastChildren, depth * 2) ;
+		}
+		open[depth] = n ;
+		lastChildren[depth] = none ;
+		depth++ ;
+	} // end of method commenceNonterminal
+
+	public void finishNonterminal(String name)
+	{
+		depth-- ;
+	} // end of method finishNonterminal
+
+	public void reportSuccess()
+	{
+		complete = true ;
+		successAt = size ;
+	} // end of method reportSuccess
+
+	/** Empties the tree, ready for another parse, keeping the space it has grown. */
+	public void clear()
+	{
+		size = 0 ;
+		depth = 0 ;
+		lastRoot = none ;
+		complete = false ;
+		tokens.clear() ;
+		texts.clear() ;
+	} // end of method clear
+
+	/** @return The number of nodes. */
+	public int size()
+	{
+		return size ;
+	} // end of method size
+
+	/** @return The first root that is not text, the statement part, or none if there is none. */
+	public int root()
+	{
+		int n = (size > 0) ? 0 : none ;
+		while ((n != none) && isText(n))
+			n = nextSiblings[n] ;
+		return n ;
+	} // end of method root
+
+	/** @return Whether the parse succeeded.  After an error the tree holds what was parsed before it. */
+	public boolean isComplete()
+	{
+		return complete ;
+	} // end of method isComplete
+
+	/** @return Whether the node is a terminal. */
+	public boolean isTerminal(int node)
+	{
+		return (kinds[node] < 0) && (kinds[node] != textKind) ;
+	} // end of method isTerminal
+
+	/** @return Whether the node is text copied into the trace as it stands. */
+	public boolean isText(int node)
+	{
+		return kinds[node] == textKind ;
+	} // end of method isText
+
+	/** @return The text of a text node, or null for any other node. */
+	public String text(int node)
+	{
+		return isText(node) ? texts.get(tokenIndexes[node]) : null ;
+	} // end of method text
+
+	/** @return The terminal's symbol, one of the class constants from Token, or none for any other node. */
+	public int symbol(int node)
+	{
+		return isTerminal(node) ? -kinds[node] : none ;
+	} // end of method symbol
+
+	/** @return The name of a non-terminal, such as "<statement>", or of a
+	  terminal's symbol, or null for a text node. */
+	public String name(int node)
+	{
+		if (isText(node))
+			return null ;
+		return (kinds[node] < 0) ? Token.getName(-kinds[node]) : names.get(kinds[node]) ;
+	} // end of method name
+
+	/** @return The node's parent, or none for a root. */
+	public int parent(int node)
+	{
+		return parents[node] ;
+	} // end of method parent
+
+	/** @return The node's first child, or none. */
+	public int firstChild(int node)
+	{
+		return firstChildren[node] ;
+	} // end of method firstChild
+
+	/** @return The node's next sibling, or none. */
+	public int nextSibling(int node)
+	{
+		return nextSiblings[node] ;
+	} // end of method nextSibling
+
+	/** @return The index in tokens() of a terminal's token, or none for any other node. */
+	public int tokenIndex(int node)
+	{
+		return isTerminal(node) ? tokenIndexes[node] : none ;
+	} // end of method tokenIndex
+
+	/** @return The tokens of the terminals, in the order accepted. */
+	public TokenBuffer tokens()
+	{
+		return tokens ;
+	} // end of method tokens
+
+	/** Writes the tree out as the trace of the parse that built it.  After
+	  an error, the non-terminals left open are written as finished.
+
+	  @param sink Where the trace goes.
+	 */
+	public void write(AbstractTraceSink sink)
+	{
+		int[] stack = new int[64] ;
+		int top = 0 ;
+		int n = (size > 0) ? 0 : none ;
+		while (n != none)
+		{
+			if (complete && (n == successAt))
+				sink.reportSuccess() ;
+			// text was copied in as it stands, so is not indented
+			if (isText(n))
+				sink.insertText(texts.get(tokenIndexes[n])) ;
+			else
+			{
+				sink.indent(top) ;
+				if (isTerminal(n))
+					sink.insertTerminal(tokens.token(tokenIndexes[n])) ;
+				else
+					sink.commenceNonterminal(names.get(kinds[n])) ;
+			}
+
+			if (firstChildren[n] != none)
+			{
+				if (top == stack.length)
+					stack = Arrays.copyOf(stack, top * 2) ;
+				stack[top++] = n ;
+				n = firstChildren[n] ;
+				continue ;
+			}
+			if (!isTerminal(n) && !isText(n))
+			{
+				sink.indent(top) ;
+				sink.finishNonterminal(names.get(kinds[n])) ;
+			}
+
+			// climb until a node has a sibling to go on to, finishing each non-terminal left
+			while ((nextSiblings[n] == none) && (top > 0))
+			{
+				n = stack[--top] ;
+				sink.indent(top) ;
+				sink.finishNonterminal(names.get(kinds[n])) ;
+			}
+			n = nextSiblings[n] ;
+		}
+		if (complete && (successAt == size))
+			sink.reportSuccess() ;
+	} // end of method write
+} // end of class ParseTree
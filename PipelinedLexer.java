@@ -0,0 +1,254 @@
+
+/**
+ *
+ * Lexes a source on a thread of its own, ahead of the parser, so that one
+ * large source is read and lexed on one core while it is parsed and traced
+ * on another.
+ *
+ * Tokens pass from the lexing thread to the parser through a ring buffer
+ * with one writer and one reader, without locks.  Each side keeps its own
+ * position and only publishes it to the other once per batch of tokens, so
+ * the two cores seldom touch the same memory.  A side that finds the ring
+ * empty or full spins briefly and then parks until the other wakes it.
+ *
+ * The parser sees exactly the tokens the source would have handed it, in
+ * order, followed by EOF ever after; an exception the source throws is
+ * rethrown to the parser at the point it occurred.  Close the lexer once
+ * parsing is over, so a parse that stops early does not leave the thread
+ * waiting for room to write tokens no one will read.
+ *
+ **/
+
+import java.io.* ;
+import java.util.concurrent.locks.* ;
+
+public class PipelinedLexer implements TokenSource, Closeable
+{
+	/** The number of tokens the ring holds unless told otherwise. */
+	public static final int defaultCapacity = 1 << 14 ;
+	/** How often a side waiting on the other checks again before parking. */
+	private static final int spins = 256 ;
+
+	/** The source lexed on the thread. */
+	private final TokenSource source ;
+	/** The tokens in flight; token n is held at n & mask. */
+	private final Token[] ring ;
+	private final int mask ;
+	/** The number of tokens a side passes before publishing its position. */
+	private final int batch ;
+	private final Thread thread ;
+
+	/* Shared between the two sides. */
+	/** The number of tokens written and visible to the parser. */
+	private volatile long published ;
+	/** The number of tokens read, whose slots the lexing thread may reuse. */
+	private volatile long released ;
+	/** Set once the lexing thread will publish no more. */
+	private volatile boolean finished ;
+	/** What stopped the lexing thread, if it did not reach EOF. */
+	private volatile Throwable failure ;
+	/** Set once the parser wants no more tokens. */
+	private volatile boolean closed ;
+	/* Each side's thread, while it is parked waiting on the other. */
+	private volatile Thread parkedReader ;
+	private volatile Thread parkedWriter ;
+
+	/* Only touched by the lexing thread. */
+	private long written ;
+	private long writeLimit ;
+
+	/* Only touched by the parser. */
+	private long read ;
+	private long readLimit ;
+	private Token eof ;
+
+	/** Starts lexing the given source on a thread of its own, with a ring of the default size.
+
+	  @param source The source of tokens; it must block rather than return
+	  null, and hand out a Token of its own each time, as a TokenBuffer does not.
+	  @param name What the source is called, to name the thread.
+	 */
+	public PipelinedLexer(TokenSource source, String name)
+	{
+		this(source, name, defaultCapacity) ;
+	} // end of constructor method
+
+	/** Starts lexing the given source on a thread of its own.
+
+	  @param source The source of tokens; it must block rather than return
+	  null, and hand out a Token of its own each time, as a TokenBuffer does not.
+	  @param name What the source is called, to name the thread.
+	  @param capacity The most tokens lexed ahead of the parser, rounded up
+	  to a power of two no smaller than 16.
+	 */
+	public PipelinedLexer(TokenSource source, String name, int capacity)
+	{
+		int size = Integer.highestOneBit(Math.max(16, capacity) - 1) << 1 ;
+		this.source = source ;
+		ring = new Token[size] ;
+		mask = size - 1 ;
+		batch = size / 8 ;
+		writeLimit = size ;
+		thread = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				lex() ;
+			} // end of method run
+		}, "lexer " + name) ;
+		thread.setDaemon(true) ;
+		thread.start() ;
+	} // end of constructor method
+
+	/** Returns the next token, waiting for the lexing thread if it has not
+	  got that far yet.
+
+	  @throws IOException if the source could not be read.
+	  @return the next token.
+	 */
+	public Token getNextToken() throws IOException
+	{
+		if (read == readLimit)
+		{
+			if (eof != null)
+				return eof ;
+			readLimit = awaitTokens() ;
+		}
+		int slot = (int) read & mask ;
+		Token t = ring[slot] ;
+		ring[slot] = null ;
+		read++ ;
+		if (read - released >= batch)
+			release() ;
+		if (t.symbol == Token.eofSymbol)
+			eof = t ;
+		return t ;
+	} // end of method getNextToken
+
+	/** Stops the lexing thread, if it is still running.  Tokens not yet
+	  read are thrown away. */
+	public void close()
+	{
+		closed = true ;
+		LockSupport.unpark(thread) ;
+	} // end of method close
+
+	/** Runs on the lexing thread: writes tokens to the ring until EOF, a
+	  failure or the parser closes the lexer. */
+	private void lex()
+	{
+		try {
+			while (!closed)
+			{
+				Token t = source.getNextToken() ;
+				if (t == null)
+					throw new IllegalStateException("token source has no token ready") ;
+				if ((written == writeLimit) && !awaitRoom())
+					break ;
+				ring[(int) written & mask] = t ;
+				written++ ;
+				if (t.symbol == Token.eofSymbol)
+					break ;
+				if (written - published >= batch)
+					publish() ;
+			}
+		} catch (Throwable e) {
+			failure = e ;
+		} finally {
+			publish() ;
+			finished = true ;
+			wake(parkedReader) ;
+		}
+	} // end of method lex
+
+	/** Lets the parser see every token written so far. */
+	private void publish()
+	{
+		published = written ;
+		wake(parkedReader) ;
+	} // end of method publish
+
+	/** Gives the slots of every token read so far back to the lexing thread. */
+	private void release()
+	{
+		released = read ;
+		wake(parkedWriter) ;
+	} // end of method release
+
+	private static void wake(Thread parked)
+	{
+		if (parked != null)
+			LockSupport.unpark(parked) ;
+	} // end of method wake
+
+	/** Waits for the parser to read enough that the ring has room again.
+
+	  @return false if the parser closed the lexer instead.
+	 */
+	private boolean awaitRoom()
+	{
+		publish() ;
+		for (int i = 0 ; ; i++)
+		{
+			writeLimit = released + ring.length ;
+			if (written < writeLimit)
+				return true ;
+			if (closed)
+				return false ;
+			if (i < spins)
+				Thread.onSpinWait() ;
+			else
+			{
+				// register before looking again, so a release cannot slip past unseen
+				parkedWriter = Thread.currentThread() ;
+				if ((released + ring.length == writeLimit) && !closed)
+					LockSupport.park(this) ;
+				parkedWriter = null ;
+			}
+		}
+	} // end of method awaitRoom
+
+	/** Waits for the lexing thread to publish more tokens.
+
+	  @return The new number of tokens published.
+	  @throws IOException if the source could not be read.
+	 */
+	private long awaitTokens() throws IOException
+	{
+		// the lexing thread may be waiting for room the parser has already made
+		release() ;
+		for (int i = 0 ; ; i++)
+		{
+			boolean done = finished ;
+			long limit = published ;
+			if (limit != read)
+				return limit ;
+			if (done)
+				throw failure() ;
+			if (i < spins)
+				Thread.onSpinWait() ;
+			else
+			{
+				parkedReader = Thread.currentThread() ;
+				if ((published == read) && !finished)
+					LockSupport.park(this) ;
+				parkedReader = null ;
+			}
+		}
+	} // end of method awaitTokens
+
+	/** @return What the parser is to be told stopped the lexing thread short of EOF. */
+	private IOException failure()
+	{
+		Throwable e = failure ;
+		if (e instanceof IOException)
+			return (IOException) e ;
+		if (e instanceof RuntimeException)
+			throw (RuntimeException) e ;
+		if (e instanceof Error)
+			throw (Error) e ;
+		if (e != null)
+			return new IOException(e) ;
+		throw new IllegalStateException("lexer closed") ;
+	} // end of method failure
+} // end of class PipelinedLexer
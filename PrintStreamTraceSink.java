@@ -0,0 +1,57 @@
+
+/**
+ *
+ * Writes the trace to a PrintStream one line per event, as the console
+ * output always has been.
+ *
+ **/
+
+import java.io.* ;
+
+public class PrintStreamTraceSink extends AbstractTraceSink
+{
+	/** The stream written to. */
+	private PrintStream out ;
+	/** The line being built for the next println. */
+	private StringBuilder line = new StringBuilder() ;
+
+	/** Creates a sink writing to the given stream.
+
+	  @param ps The stream to write the trace to.
+	 */
+	public PrintStreamTraceSink(PrintStream ps)
+	{
+		out = ps ;
+	} // end of constructor method
+
+	protected void append(String s)
+	{
+		line.append(s) ;
+	} // end of method append
+
+	protected void append(char c)
+	{
+		line.append(c) ;
+	} // end of method append
+
+	protected void append(int i)
+	{
+		line.append(i) ;
+	} // end of method append
+
+	protected void endLine()
+	{
+		out.println(line) ;
+		line.setLength(0) ;
+	} // end of method endLine
+
+	public void flush() throws IOException
+	{
+		if (line.length() > 0)
+		{
+			out.print(line) ;
+			line.setLength(0) ;
+		}
+		out.flush() ;
+	} // end of method flush
+} // end of class PrintStreamTraceSink
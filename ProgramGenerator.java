@@ -0,0 +1,404 @@
+
+/**
+ *
+ * Generates random programs for 312 exercise from the grammar the
+ * SyntaxAnalyser implements, for benchmarks and stress tests.  Programs
+ * can be sized by statement count or bytes, from a few lines to gigabytes,
+ * nest statements to a chosen depth, and optionally carry one deliberate
+ * syntax error.  The same seed always gives the same program.
+ *
+ * Usage: java ProgramGenerator [-count n] [-statements n] [-bytes n[k|m|g]]
+ *        [-depth n] [-broken fraction] [-seed n] [-prefix path]
+ *
+ **/
+
+import java.io.* ;
+import java.util.* ;
+
+public class ProgramGenerator
+{
+	/** Variable names used in generated programs; none is a reserved word. */
+	private static final String[] names = {
+		"x1", "x2", "x3", "count", "total", "Index", "temp", "n", "result", "y"
+	} ;
+	private static final String[] conditionalOperators = {
+		">", ">=", "=", "/=", "<", "<="
+	} ;
+	/** Symbols swapped in for a correct one to make a program invalid. */
+	private static final String[] wrongSymbols = {
+		";", ":=", "then", "end", "loop", ")", "(", ",", "=", "?"
+	} ;
+
+	/** The source of every random choice. */
+	private Random random ;
+	/** How deeply statements may nest inside one another. */
+	private int maxDepth = 2 ;
+	/** Should the next fixed symbol written be replaced by a mistake? */
+	private boolean breakNext ;
+	/** The statement being built, written out a top-level statement at a time. */
+	private StringBuilder out = new StringBuilder() ;
+
+	/** Creates a generator.
+
+	  @param seed The seed every choice is derived from.
+	 */
+	public ProgramGenerator(long seed)
+	{
+		random = new Random(seed) ;
+	} // end of constructor method
+
+	/** Sets how deeply statements nest.  The first statement of every
+	  program nests exactly this deep; later ones at most this deep.
+
+	  @param depth The number of statement lists that may enclose a statement, beyond the outermost.
+	 */
+	public void setMaxDepth(int depth)
+	{
+		maxDepth = Math.max(0, depth) ;
+	} // end of method setMaxDepth
+
+	/** Generates a valid program.
+
+	  @param statements The number of statements in the outermost statement list.
+	  @return The program text.
+	 */
+	public String generate(int statements)
+	{
+		StringWriter text = new StringWriter() ;
+		try {
+			write(text, statements, 0, false) ;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e) ;
+		}
+		return text.toString() ;
+	} // end of method generate
+
+	/** Writes a program, stopping at whichever limit is reached first.
+
+	  @param writer Where the program is written.
+	  @param statements The most statements in the outermost statement list, or 0 for no limit.
+	  @param bytes The size to stop at, give or take a statement, or 0 for no limit.
+	  @param broken Whether to make one statement, chosen at random, syntactically invalid.
+	  @return The number of characters written.
+	  @throws IOException if the program cannot be written.
+	 */
+	public long write(Writer writer, int statements, long bytes, boolean broken) throws IOException
+	{
+		if ((statements <= 0) && (bytes <= 0))
+			statements = 1 ;
+
+		// the mistake goes in the first statement at or after a random statement number or offset
+		long brokenAt = -1 ;
+		if (broken)
+			brokenAt = (statements > 0) ? random.nextInt(statements) : (long) (random.nextDouble() * bytes) ;
+		breakNext = false ;
+
+		long written = 0 ;
+		writer.write("begin\n") ;
+		written += 6 ;
+		for (long i = 0 ; ; i++)
+		{
+			out.setLength(0) ;
+			if (i > 0)
+				out.append(";\n") ;
+			if ((brokenAt >= 0) && (((statements > 0) ? i : written) >= brokenAt))
+			{
+				breakNext = true ;
+				brokenAt = -1 ;
+			}
+			statement(0, i == 0) ;
+			writer.append(out) ;
+			written += out.length() ;
+
+			if ((statements > 0) && (i + 1 >= statements))
+				break ;
+			if ((bytes > 0) && (written >= bytes))
+				break ;
+		}
+		// a mistake still pending when the statements run out becomes a missing end
+		if (breakNext)
+		{
+			writer.write("\n") ;
+			return written + 1 ;
+		}
+		writer.write("\nend\n") ;
+		return written + 5 ;
+	} // end of method write
+
+	/** Appends a fixed symbol, or a mistake in its place if one is due.
+
+	  @param symbol The symbol the grammar calls for.
+	 */
+	private void symbol(String symbol)
+	{
+		if (breakNext && (random.nextInt(4) == 0))
+		{
+			breakNext = false ;
+			String wrong = wrongSymbols[random.nextInt(wrongSymbols.length)] ;
+			// leaving the symbol out is a mistake too, as long as it is not replaced by itself
+			out.append(wrong.equals(symbol) ? "" : wrong) ;
+		}
+		else
+			out.append(symbol) ;
+	} // end of method symbol
+
+	/** statement list ::= <statement> | <statement list> ; <statement> */
+	private void statementList(int depth, boolean deepest)
+	{
+		int count = 1 + random.nextInt(4) ;
+		for (int i = 0 ; i < count ; i++)
+		{
+			if (i > 0)
+			{
+				symbol(";") ;
+				out.append('\n') ;
+			}
+			statement(depth, deepest && (i == 0)) ;
+		}
+		out.append('\n') ;
+	} // end of method statementList
+
+	/** statement ::= <assignment statement> | <if statement> | <while statement> | <procedure statement> | <until statement> | <for statement>
+
+	  @param depth How many statement lists enclose this one, beyond the outermost.
+	  @param deepest Whether this statement must nest all the way to the maximum depth.
+	 */
+	private void statement(int depth, boolean deepest)
+	{
+		int choice ;
+		if (depth >= maxDepth)
+			choice = random.nextInt(2) ;
+		else if (deepest)
+			choice = 2 + random.nextInt(4) ;
+		else
+			choice = random.nextInt(6) ;
+
+		switch (choice)
+		{
+			case 0 :
+				assignment() ;
+				break ;
+			case 1 :
+				symbol("call") ;
+				out.append(' ').append(name()) ;
+				symbol("(") ;
+				int arguments = 1 + random.nextInt(3) ;
+				for (int i = 0 ; i < arguments ; i++)
+				{
+					if (i > 0)
+					{
+						symbol(",") ;
+						out.append(' ') ;
+					}
+					out.append(name()) ;
+				}
+				symbol(")") ;
+				break ;
+			case 2 :
+				symbol("if") ;
+				out.append(' ') ;
+				condition() ;
+				out.append(' ') ;
+				symbol("then") ;
+				out.append('\n') ;
+				statementList(depth + 1, deepest) ;
+				if (random.nextBoolean())
+				{
+					symbol("else") ;
+					out.append('\n') ;
+					statementList(depth + 1, false) ;
+				}
+				symbol("end") ;
+				out.append(' ') ;
+				symbol("if") ;
+				break ;
+			case 3 :
+				symbol("while") ;
+				out.append(' ') ;
+				condition() ;
+				out.append(' ') ;
+				symbol("loop") ;
+				out.append('\n') ;
+				statementList(depth + 1, deepest) ;
+				symbol("end") ;
+				out.append(' ') ;
+				symbol("loop") ;
+				break ;
+			case 4 :
+				symbol("do") ;
+				out.append('\n') ;
+				statementList(depth + 1, deepest) ;
+				symbol("until") ;
+				out.append(' ') ;
+				condition() ;
+				break ;
+			default :
+				symbol("for") ;
+				out.append(' ') ;
+				symbol("(") ;
+				assignment() ;
+				symbol(";") ;
+				out.append(' ') ;
+				condition() ;
+				symbol(";") ;
+				out.append(' ') ;
+				assignment() ;
+				symbol(")") ;
+				out.append(' ') ;
+				symbol("do") ;
+				out.append('\n') ;
+				statementList(depth + 1, deepest) ;
+				symbol("end") ;
+				out.append(' ') ;
+				symbol("loop") ;
+		}
+	} // end of method statement
+
+	/** assign statement ::= identifier := <expression> | identifier := stringConstant */
+	private void assignment()
+	{
+		out.append(name()).append(' ') ;
+		symbol(":=") ;
+		out.append(' ') ;
+		if (random.nextInt(8) == 0)
+			out.append("\"text ").append(random.nextInt(100)).append('"') ;
+		else
+			expression(0) ;
+	} // end of method assignment
+
+	/** condition ::= identifier <conditional operator> identifier | numberConstant | stringConstant */
+	private void condition()
+	{
+		out.append(name()).append(' ') ;
+		symbol(conditionalOperators[random.nextInt(conditionalOperators.length)]) ;
+		out.append(' ') ;
+		switch (random.nextInt(3))
+		{
+			case 0 :
+				out.append(name()) ;
+				break ;
+			case 1 :
+				out.append(random.nextInt(1000)) ;
+				break ;
+			default :
+				out.append("\"s").append(random.nextInt(10)).append('"') ;
+		}
+	} // end of method condition
+
+	/** expression ::= <term> | <expression> + <term> | <expression> - <term> */
+	private void expression(int depth)
+	{
+		term(depth) ;
+		int operators = random.nextInt(3) ;
+		for (int i = 0 ; i < operators ; i++)
+		{
+			out.append(' ') ;
+			symbol(random.nextBoolean() ? "+" : "-") ;
+			out.append(' ') ;
+			term(depth) ;
+		}
+	} // end of method expression
+
+	/** term ::= <factor> | <term> * <factor> | <term> / <factor> */
+	private void term(int depth)
+	{
+		factor(depth) ;
+		int operators = random.nextInt(2) ;
+		for (int i = 0 ; i < operators ; i++)
+		{
+			out.append(' ') ;
+			symbol(random.nextBoolean() ? "*" : "/") ;
+			out.append(' ') ;
+			factor(depth) ;
+		}
+	} // end of method term
+
+	/** factor ::= identifier | numberConstant | ( <expression> ) */
+	private void factor(int depth)
+	{
+		int choice = (depth >= 2) ? random.nextInt(2) : random.nextInt(5) ;
+		if (choice == 0)
+			out.append(name()) ;
+		else if (choice == 1)
+			out.append(random.nextInt(100)) ;
+		else if (choice == 2)
+			out.append(random.nextInt(100)).append('.').append(random.nextInt(100)) ;
+		else
+		{
+			symbol("(") ;
+			expression(depth + 1) ;
+			symbol(")") ;
+		}
+	} // end of method factor
+
+	/** @return A random variable name. */
+	private String name()
+	{
+		return names[random.nextInt(names.length)] ;
+	} // end of method name
+
+	/** Parses a size such as 512, 64k, 10m or 1g into bytes. */
+	private static long parseSize(String size)
+	{
+		char unit = Character.toLowerCase(size.charAt(size.length() - 1)) ;
+		long scale = (unit == 'k') ? 1L << 10 : (unit == 'm') ? 1L << 20 : (unit == 'g') ? 1L << 30 : 1 ;
+		if (scale > 1)
+			size = size.substring(0, size.length() - 1) ;
+		return Long.parseLong(size) * scale ;
+	} // end of method parseSize
+
+	/** Entry point: writes a corpus of programs named prefix0, prefix1, ... */
+	public static void main(String[] args) throws IOException
+	{
+		int count = 10, statements = 0, depth = 2 ;
+		long bytes = 0, seed = 312 ;
+		double brokenFraction = 0 ;
+		String prefix = "Generated Folder" + File.separator + "program" ;
+
+		for (int i = 0 ; i < args.length ; i++)
+		{
+			if (args[i].equals("-count") && (i + 1 < args.length))
+				count = Integer.parseInt(args[++i]) ;
+			else if (args[i].equals("-statements") && (i + 1 < args.length))
+				statements = Integer.parseInt(args[++i]) ;
+			else if (args[i].equals("-bytes") && (i + 1 < args.length))
+				bytes = parseSize(args[++i]) ;
+			else if (args[i].equals("-depth") && (i + 1 < args.length))
+				depth = Integer.parseInt(args[++i]) ;
+			else if (args[i].equals("-broken") && (i + 1 < args.length))
+				brokenFraction = Double.parseDouble(args[++i]) ;
+			else if (args[i].equals("-seed") && (i + 1 < args.length))
+				seed = Long.parseLong(args[++i]) ;
+			else if (args[i].equals("-prefix") && (i + 1 < args.length))
+				prefix = args[++i] ;
+			else
+			{
+				System.err.println("unknown option " + args[i]) ;
+				System.exit(1) ;
+			}
+		}
+		if ((statements == 0) && (bytes == 0))
+			statements = 100 ;
+
+		File parent = new File(prefix).getAbsoluteFile().getParentFile() ;
+		if (parent != null)
+			parent.mkdirs() ;
+
+		Random choices = new Random(seed) ;
+		for (int i = 0 ; i < count ; i++)
+		{
+			ProgramGenerator generator = new ProgramGenerator(seed + i) ;
+			generator.setMaxDepth(depth) ;
+			boolean broken = choices.nextDouble() < brokenFraction ;
+			String fileName = prefix + i ;
+			Writer writer = new BufferedWriter(new FileWriter(fileName), 1 << 16) ;
+			long size ;
+			try {
+				size = generator.write(writer, statements, bytes, broken) ;
+			} finally {
+				writer.close() ;
+			}
+			System.out.println(fileName + " " + size + " bytes" + (broken ? " broken" : "")) ;
+		}
+	} // end of main method
+} // end of class ProgramGenerator
@@ -0,0 +1,436 @@
+
+/**
+ *
+ * Keeps the results of analysing sources on disk, so that a batch run
+ * again over sources that have not changed copies out what it wrote last
+ * time instead of lexing and parsing them again.
+ *
+ * A result is found by a SHA-256 digest of the source's bytes, its name
+ * (which its error report gives), the options that change the output, and
+ * the version of the analyser: a digest of every class loaded from where
+ * the compiler's are, nested ones included, so a rebuilt compiler never
+ * reads results of an older one.  Each result is a file of its own
+ * holding the verdict, the deepest nesting reached, the number of errors,
+ * the error report and the trace, deflated.
+ *
+ * The cache is bounded in size.  Results are touched as they are read, and
+ * once the cache grows past its bound the results least recently touched
+ * are removed until it is well below it.  Results are written to a file of
+ * their own first and then moved into place, so any number of threads, and
+ * of batches sharing the directory, may read and write at once; a result
+ * that cannot be read, for whatever reason, is analysed again.
+ *
+ **/
+
+import java.io.* ;
+import java.net.* ;
+import java.nio.charset.* ;
+import java.nio.file.* ;
+import java.nio.file.attribute.* ;
+import java.security.* ;
+import java.util.* ;
+import java.util.concurrent.atomic.* ;
+import java.util.jar.* ;
+import java.util.zip.* ;
+
+public class ResultCache
+{
+	/** The most bytes of results kept unless told otherwise. */
+	public static final long defaultMaxBytes = 256L << 20 ;
+	/** Classes whose code decides what a source's result is, which must be
+	  among those digested for the version to mean anything. */
+	private static final String[] analyserClasses = {
+			"Token", "LexicalAnalyser", "ByteScanner", "IdentifierTable", "TokenBuffer",
+			"ChannelLexer", "ParallelLexer", "PipelinedLexer",
+			"AbstractSyntaxAnalyser", "SyntaxAnalyser", "ParallelAnalyser", "TableDrivenAnalyser",
+			"CompilationException", "AbstractGenerate", "Generate", "TraceRecorder",
+			"AbstractTraceSink", "BufferedTraceSink", "BinaryTraceSink", "PrintStreamTraceSink" } ;
+	/** Marks the start of a result file, and its layout. */
+	private static final int magic = 0x33313243, // "312C"
+			format = 2 ;
+	/** The bytes of the magic number, format and checksum at the start of each result file. */
+	private static final int headerBytes = 12 ;
+	private static final String suffix = ".result" ;
+	/** How long a result read goes before it is touched again. */
+	private static final long touchMillis = 60 * 1000L ;
+	/** How old a half-written result must be before it is taken to be abandoned. */
+	private static final long abandonedMillis = 60 * 60 * 1000L ;
+
+	/** The version of the analyser, digested once. */
+	private static byte[] version ;
+
+	/** The result of analysing one source. */
+	public static class Entry
+	{
+		/** Whether the source parsed. */
+		public final boolean parsed ;
+		/** The most non-terminals open at once. */
+		public final int maxDepth ;
+		/** The number of errors reported. */
+		public final int errorCount ;
+		/** The error report, as written to res.txt. */
+		public final byte[] errors ;
+		/** The trace, as written to the console or binary trace. */
+		public final byte[] trace ;
+
+		public Entry(boolean parsed, int maxDepth, int errorCount, byte[] errors, byte[] trace)
+		{
+			this.parsed = parsed ;
+			this.maxDepth = maxDepth ;
+			this.errorCount = errorCount ;
+			this.errors = errors ;
+			this.trace = trace ;
+		} // end of constructor method
+	} // end of class Entry
+
+	private final Path directory ;
+	private final long maxBytes ;
+	/** The bytes of results in the directory, counted when first needed; -1 until then. */
+	private final AtomicLong size = new AtomicLong(-1) ;
+	/** Names the files results are written to before they are moved into place. */
+	private final AtomicLong written = new AtomicLong() ;
+
+	/** Opens a cache in the given directory, making it if need be.
+
+	  @param directory Where the results are kept.
+	  @param maxBytes The most bytes of results to keep.
+	  @throws IOException if the directory cannot be made, or the analyser's
+	    classes cannot be read to tell its version.
+	 */
+	public ResultCache(String directory, long maxBytes) throws IOException
+	{
+		version() ;
+		this.directory = Files.createDirectories(Paths.get(directory)) ;
+		this.maxBytes = Math.max(0, maxBytes) ;
+	} // end of constructor method
+
+	/** Works out what a source's result is kept under.
+
+	  @param source The source's bytes.
+	  @param name The name its errors are reported against.
+	  @param options What else changes its result, such as whether a trace is written.
+	  @return The key, in hexadecimal.
+	 */
+	public String key(byte[] source, String name, String options)
+	{
+		MessageDigest md = digest() ;
+		// worked out when the cache was opened
+		md.update(version) ;
+		md.update((options + '\0' + name + '\0').getBytes(StandardCharsets.UTF_8)) ;
+		md.update(source) ;
+		byte[] d = md.digest() ;
+		char[] hex = new char[d.length * 2] ;
+		for (int i = 0 ; i < d.length ; i++)
+		{
+			hex[2 * i] = Character.forDigit((d[i] >> 4) & 0xf, 16) ;
+			hex[2 * i + 1] = Character.forDigit(d[i] & 0xf, 16) ;
+		}
+		return new String(hex) ;
+	} // end of method key
+
+	/** Reads the result kept under a key.
+
+	  @param key The key, from key().
+	  @return The result, or null if none is kept or it cannot be read.
+	 */
+	public Entry get(String key)
+	{
+		Path path = path(key) ;
+		try {
+			byte[] bytes = Files.readAllBytes(path) ;
+			Entry entry = decode(bytes) ;
+			if (entry == null)
+				return null ;
+			// touched now and then, not every time, so that a warm run does not write for every read
+			long now = System.currentTimeMillis() ;
+			FileTime touched = Files.getLastModifiedTime(path) ;
+			if (now - touched.toMillis() > touchMillis)
+				Files.setLastModifiedTime(path, FileTime.fromMillis(now)) ;
+			return entry ;
+		} catch (IOException e) {
+			// missing, or removed as it was read
+			return null ;
+		}
+	} // end of method get
+
+	/** Keeps a result under a key, in place of any kept there already.  A
+	  result that cannot be written is dropped, as the cache is only ever a
+	  shortcut.
+
+	  @param key The key, from key().
+	  @param entry The result.
+	 */
+	public void put(String key, Entry entry)
+	{
+		Path path = path(key) ;
+		Path temporary = path.resolveSibling(key + "." + ProcessHandle.current().pid()
+				+ "-" + written.incrementAndGet() + ".tmp") ;
+		try {
+			byte[] bytes = encode(entry) ;
+			// counted before this result is there to be counted, as it is added below
+			if (size.get() < 0)
+				count() ;
+			Files.createDirectories(path.getParent()) ;
+			Files.write(temporary, bytes) ;
+			try {
+				Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING) ;
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING) ;
+			}
+			if (size.addAndGet(bytes.length) > maxBytes)
+				evict() ;
+		} catch (IOException e) {
+			try {
+				Files.deleteIfExists(temporary) ;
+			} catch (IOException ignored) {
+			}
+		}
+	} // end of method put
+
+	/** @return Where the result kept under a key is, fanned out over
+	  directories named by its first two digits. */
+	private Path path(String key)
+	{
+		return directory.resolve(key.substring(0, 2)).resolve(key + suffix) ;
+	} // end of method path
+
+	/** Counts the bytes of results in the directory, if no one has yet. */
+	private synchronized void count() throws IOException
+	{
+		if (size.get() >= 0)
+			return ;
+		long total = 0 ;
+		for (Result r : results())
+			total += r.bytes ;
+		size.compareAndSet(-1, total) ;
+	} // end of method count
+
+	/** Removes the results least recently touched until the cache is down
+	  to three quarters of its bound, so it is not done again at every put. */
+	private synchronized void evict() throws IOException
+	{
+		if (size.get() <= maxBytes)
+			return ;
+		// looked at afresh, as other batches sharing the directory add and remove results too
+		ArrayList<Result> results = results() ;
+		long total = 0 ;
+		for (Result r : results)
+			total += r.bytes ;
+		Collections.sort(results) ;
+		long target = maxBytes / 4 * 3 ;
+		for (int i = 0 ; (i < results.size()) && (total > target) ; i++)
+		{
+			Files.deleteIfExists(results.get(i).path) ;
+			total -= results.get(i).bytes ;
+		}
+		size.set(total) ;
+	} // end of method evict
+
+	/** A result file, as found on disk. */
+	private static class Result implements Comparable<Result>
+	{
+		final Path path ;
+		final long bytes,
+				touched ;
+
+		Result(Path path, long bytes, long touched)
+		{
+			this.path = path ;
+			this.bytes = bytes ;
+			this.touched = touched ;
+		} // end of constructor method
+
+		/** Orders results least recently touched first. */
+		public int compareTo(Result other)
+		{
+			return Long.compare(touched, other.touched) ;
+		} // end of method compareTo
+	} // end of class Result
+
+	/** @return Every result in the directory, removing any half-written
+	  ones long abandoned on the way. */
+	private ArrayList<Result> results() throws IOException
+	{
+		final ArrayList<Result> results = new ArrayList<Result>() ;
+		final long abandoned = System.currentTimeMillis() - abandonedMillis ;
+		Files.walkFileTree(directory, EnumSet.noneOf(FileVisitOption.class), 2, new SimpleFileVisitor<Path>()
+		{
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException
+			{
+				String name = file.getFileName().toString() ;
+				long touched = attributes.lastModifiedTime().toMillis() ;
+				if (name.endsWith(suffix))
+					results.add(new Result(file, attributes.size(), touched)) ;
+				else if (name.endsWith(".tmp") && (touched < abandoned))
+					Files.deleteIfExists(file) ;
+				return FileVisitResult.CONTINUE ;
+			} // end of method visitFile
+
+			public FileVisitResult visitFileFailed(Path file, IOException e)
+			{
+				// removed by another batch while the directory was walked
+				return FileVisitResult.CONTINUE ;
+			} // end of method visitFileFailed
+		}) ;
+		return results ;
+	} // end of method results
+
+	/** @return A result as written to its file. */
+	private static byte[] encode(Entry entry) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + entry.errors.length + entry.trace.length / 4) ;
+		DataOutputStream out = new DataOutputStream(bytes) ;
+		out.writeInt(magic) ;
+		out.writeInt(format) ;
+		// the checksum of what follows, filled in once it is written
+		out.writeInt(0) ;
+		out.writeBoolean(entry.parsed) ;
+		out.writeInt(entry.maxDepth) ;
+		out.writeInt(entry.errorCount) ;
+		out.writeInt(entry.errors.length) ;
+		out.write(entry.errors) ;
+		out.writeInt(entry.trace.length) ;
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED) ;
+		try {
+			DeflaterOutputStream trace = new DeflaterOutputStream(out, deflater, 1 << 16) ;
+			trace.write(entry.trace) ;
+			trace.finish() ;
+		} finally {
+			deflater.end() ;
+		}
+		out.flush() ;
+		byte[] result = bytes.toByteArray() ;
+		int crc = checksum(result) ;
+		for (int i = 0 ; i < 4 ; i++)
+			result[headerBytes - 1 - i] = (byte) (crc >>> (8 * i)) ;
+		return result ;
+	} // end of method encode
+
+	/** @return The result written to a file, or null if it is not one this
+	  version of the cache wrote in full. */
+	private static Entry decode(byte[] bytes) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes)) ;
+		try {
+			if ((in.readInt() != magic) || (in.readInt() != format) || (in.readInt() != checksum(bytes)))
+				return null ;
+			boolean parsed = in.readBoolean() ;
+			int maxDepth = in.readInt() ;
+			int errorCount = in.readInt() ;
+			int errorLength = in.readInt() ;
+			if ((errorLength < 0) || (errorLength > bytes.length))
+				return null ;
+			byte[] errors = new byte[errorLength] ;
+			in.readFully(errors) ;
+			int traceLength = in.readInt() ;
+			int at = bytes.length - in.available() ;
+			// deflate shrinks nothing more than a thousandfold
+			if ((traceLength < 0) || (traceLength / 1024 > bytes.length - at))
+				return null ;
+			byte[] trace = new byte[traceLength] ;
+			Inflater inflater = new Inflater() ;
+			try {
+				inflater.setInput(bytes, at, bytes.length - at) ;
+				int length = 0 ;
+				while (length < trace.length)
+				{
+					int n = inflater.inflate(trace, length, trace.length - length) ;
+					if ((n == 0) && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+						return null ;
+					length += n ;
+				}
+				// the whole trace and nothing after it
+				if (!inflater.finished() && (inflater.inflate(new byte[1]) > 0))
+					return null ;
+				if (!inflater.finished())
+					return null ;
+			} catch (DataFormatException e) {
+				return null ;
+			} finally {
+				inflater.end() ;
+			}
+			return new Entry(parsed, maxDepth, errorCount, errors, trace) ;
+		} catch (EOFException e) {
+			return null ;
+		}
+	} // end of method decode
+
+	/** @return The CRC-32 of a result file after its header, which finds
+	  damage the deflated trace would not show, as in the error report. */
+	private static int checksum(byte[] bytes)
+	{
+		CRC32 crc = new CRC32() ;
+		crc.update(bytes, headerBytes, bytes.length - headerBytes) ;
+		return (int) crc.getValue() ;
+	} // end of method checksum
+
+	private static MessageDigest digest()
+	{
+		try {
+			return MessageDigest.getInstance("SHA-256") ;
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform has SHA-256
+			throw new IllegalStateException(e) ;
+		}
+	} // end of method digest
+
+	/** @return A digest of every class in the directory or jar the
+	  analyser's classes were loaded from, and of the platform settings the
+	  output depends on.  Digesting them all, rather than a list, takes in
+	  nested classes and the vector scanner if it was built, and any class
+	  added later.
+	  @throws IOException if the classes cannot be found or read, or one of
+	    the analyser's is not among them.
+	 */
+	private static synchronized byte[] version() throws IOException
+	{
+		if (version != null)
+			return version ;
+		CodeSource source = ResultCache.class.getProtectionDomain().getCodeSource() ;
+		if (source == null)
+			throw new IOException("cannot tell where the analyser's classes were loaded from") ;
+		Path location ;
+		try {
+			location = Paths.get(source.getLocation().toURI()) ;
+		} catch (URISyntaxException | IllegalArgumentException | FileSystemNotFoundException e) {
+			throw new IOException("cannot read the analyser's classes from " + source.getLocation(), e) ;
+		}
+
+		// in name order, so that the digest does not depend on the order they are listed in
+		TreeMap<String, byte[]> classes = new TreeMap<String, byte[]>() ;
+		if (Files.isDirectory(location))
+		{
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(location, "*.class")) {
+				for (Path file : files)
+					classes.put(file.getFileName().toString(), Files.readAllBytes(file)) ;
+			}
+		}
+		else
+		{
+			try (JarFile jar = new JarFile(location.toFile())) {
+				for (Enumeration<JarEntry> entries = jar.entries() ; entries.hasMoreElements() ; )
+				{
+					JarEntry entry = entries.nextElement() ;
+					// the classes are in the default package, so at the top of the jar
+					if (entry.getName().endsWith(".class") && (entry.getName().indexOf('/') < 0))
+						try (InputStream in = jar.getInputStream(entry)) {
+							classes.put(entry.getName(), in.readAllBytes()) ;
+						}
+				}
+			}
+		}
+		for (String name : analyserClasses)
+			if (!classes.containsKey(name + ".class"))
+				throw new IOException("cannot find the class file of " + name + " in " + location) ;
+
+		MessageDigest md = digest() ;
+		md.update((Charset.defaultCharset().name() + '\0' + System.lineSeparator() + '\0').getBytes(StandardCharsets.UTF_8)) ;
+		for (Map.Entry<String, byte[]> c : classes.entrySet())
+		{
+			md.update((c.getKey() + '\0').getBytes(StandardCharsets.UTF_8)) ;
+			md.update(c.getValue()) ;
+		}
+		version = md.digest() ;
+		return version ;
+	} // end of method version
+} // end of class ResultCache
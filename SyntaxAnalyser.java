@@ -1,8 +1,32 @@
 import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
 
 public class SyntaxAnalyser extends AbstractSyntaxAnalyser{
     private String filename;
 
+    // the non terminals currently open, innermost last, and the line each reports if an error unwinds through it
+    private String[] contextNames = new String[64];
+    private int[] contextLines = new int[64];
+    private int contextDepth;
+    // the most non terminals open at once in the last parse
+    private int maxDepth;
+
+    // whether errors are recovered from, so that one parse reports every error in a source rather than only the first
+    private boolean recovering;
+    // where recovered errors are reported, set by parse
+    private PrintStream errorStream;
+    // the last error recovered from and not yet reported, held back so that the parse can fail with it
+    private CompilationException pendingError;
+    // thrown past a statement whose error has already been recovered from and recorded
+    private static final CompilationException alreadyReported = new CompilationException("error already reported");
+    // the number of tokens taken from the source in the last parse, which tells apart the tokens errors are found at
+    long tokensTaken;
+    // tokensTaken when the last error was recorded, so that an error met again at the same token is not reported again
+    private long lastErrorAt;
+    // the number of times the last parse recovered from an error, counting an error met again
+    int recoveries;
+
     /**
      * Constructor, create lexical analyser object
      * @param filename
@@ -18,17 +42,27 @@ public class SyntaxAnalyser extends AbstractSyntaxAnalyser{
         }
     }
 
+    /**
+     * Constructor, analyse tokens from an existing source such as a TokenBuffer
+     * @param source the tokens to analyse
+     * @param filename the name errors are reported against
+     */
+    public SyntaxAnalyser(TokenSource source, String filename){
+        this.filename = filename;
+        lex = source;
+    }
+
     /**
      * Generate error messages
      * @param expected the expected symbol in string
      * @param symbol the id of the symbol that we got
      * @return
      */
-    private String createErrorMessage_nonTerminal(String expected, Token token){
+    private String createErrorMessage_nonTerminal(String expected, int lineNumber){
         //"error – expected t, found nextSymbol, at line/char "
         //String errorMessage = "expected <" + expected + ">, found <" + Token.getName(symbol) + ">, at line/char " + Integer.toString(nextToken.lineNumber);
         //String errorMessage = "line/char " + Integer.toString(token.lineNumber) + ": thrown from \"" + Token.getName(token.symbol) + "\" in <" + expected + ">";
-        String errorMessage = "File \"" + filename + "\", line/char " + Integer.toString(token.lineNumber) + " in " + expected ;
+        String errorMessage = "File \"" + filename + "\", line/char " + Integer.toString(lineNumber) + " in " + expected ;
         //String errorMessage = "line/char " + Integer.toString(token.lineNumber) + ": expected <" + expected + ">, found <" + Token.getName(token.symbol) + ">";
         return errorMessage;
     }
@@ -38,11 +72,219 @@ public class SyntaxAnalyser extends AbstractSyntaxAnalyser{
         return errorMessage;
     }
 
-    private void printTabs(int num_of_tabs){
-        for (int i = 0; i < num_of_tabs; i++){
-            System.out.print("\t");
+    /**
+     * Opens a non terminal on the context stack, reporting the next token's line until a terminal is accepted
+     * @param name the name of the non terminal
+     */
+    private void enterContext(String name){
+        if (contextDepth == contextNames.length){
+            contextNames = Arrays.copyOf(contextNames, contextDepth * 2);
+            contextLines = Arrays.copyOf(contextLines, contextDepth * 2);
+        }
+        contextNames[contextDepth] = name;
+        contextLines[contextDepth] = nextToken.lineNumber;
+        contextDepth++;
+        if (contextDepth > maxDepth){
+            maxDepth = contextDepth;
+        }
+    }
+
+    /**
+     * Closes the innermost non terminal on the context stack
+     */
+    private void leaveContext(){
+        contextDepth--;
+    }
+
+    /**
+     * Wraps an error in one exception per non terminal still open, innermost first, giving the
+     * same chain as if every non terminal had caught and rethrown it
+     * @param e the error raised inside the innermost non terminal
+     * @return the exception for the outermost non terminal
+     */
+    private CompilationException contextChain(CompilationException e){
+        e = openContextChain(e);
+        contextDepth = 0;
+        return e;
+    }
+
+    /**
+     * As above, leaving the context stack as it is. Only the outermost levels of a chain are ever reported, so
+     * with more non terminals open than that the levels below are left out, error included
+     * @param e the error raised inside the innermost non terminal
+     * @return the exception for the outermost non terminal
+     */
+    private CompilationException openContextChain(CompilationException e){
+        int i = contextDepth - 1;
+        if (contextDepth >= CompilationException.MAX_TRACE_DEPTH){
+            i = CompilationException.MAX_TRACE_DEPTH - 1;
+            e = new CompilationException(createErrorMessage_nonTerminal(contextNames[i], contextLines[i]));
+            i--;
+        }
+        for (; i >= 0; i--){
+            e = new CompilationException(createErrorMessage_nonTerminal(contextNames[i], contextLines[i]), e);
+        }
+        return e;
+    }
+
+    /**
+     * Turns panic mode error recovery on or off. With it on, an error is reported and the parse carries on from the
+     * next token that can follow the statement it was found in, so every error in a source is reported in one parse.
+     * A missing ; between two statements is reported and parsed past, as is anything stray before the closing end.
+     * The parse still fails if any error was found. It is off by default, so that only the first error is reported.
+     * @param on whether to recover from errors
+     */
+    public void setErrorRecovery(boolean on){
+        recovering = on;
+    }
+
+    /**
+     * Parses the source, reporting every error found if error recovery is on
+     * @param ps the stream errors are reported to
+     * @return true if the source parsed without error
+     */
+    @Override
+    public boolean parse(PrintStream ps) throws IOException {
+        errorStream = ps;
+        pendingError = null;
+        tokensTaken = 0;
+        lastErrorAt = -1;
+        recoveries = 0;
+        return super.parse(ps);
+    }
+
+    /**
+     * Reports the error held back, if any, as parse() reports the error it fails with
+     */
+    private void reportPending() throws IOException {
+        if (pendingError != null){
+            // the trace so far goes out first, in case both share a stream; indentation given for a terminal that was
+            // not there is kept back, for the recovery to replace
+            myGenerate.flushEvents();
+            errorStream.println("Compilation Exception");
+            errorStream.println(pendingError.toTraceString());
+            errorCount++;
+            pendingError = null;
+        }
+    }
+
+    /**
+     * Records an error to recover from and abandons the non terminals it was found in, finishing them in the trace.
+     * Synchronising stops at a token without taking it, so the compound statements around may fail on that token
+     * too; an error at the token the last one was found at is the same error, and is not recorded again
+     * @param e the error, or alreadyReported if it has been recorded
+     * @param level the number of non terminals left open
+     */
+    private void recover(CompilationException e, int level) throws IOException {
+        recoveries++;
+        if (e != alreadyReported && tokensTaken != lastErrorAt){
+            reportPending();
+            pendingError = openContextChain(e);
+            lastErrorAt = tokensTaken;
+        }
+        while (contextDepth > level){
+            contextDepth--;
+            printTabs(contextDepth);
+            myGenerate.finishNonterminal(contextNames[contextDepth]);
+        }
+    }
+
+    /**
+     * Skips tokens until one that can follow a statement: ";", "end", "else", "until" or EOF. Whole statements met on
+     * the way are skipped, so that the "end" or "until" closing one is not taken for one following the statement.
+     * In the head of a compound statement, tokens are skipped until the symbol ending the head or, failing that,
+     * until past the "end" of the compound statement
+     * @param symbol the symbol ending the head, or -1 if not in one
+     * @return whether the symbol ending the head was found
+     */
+    private boolean synchronise(int symbol) throws IOException {
+        boolean head = symbol >= 0;
+        // the compound statements skipped into and not yet out of, counting the one whose head this is
+        int open = head ? 1 : 0;
+        int previous = -1;
+        while (nextToken.symbol != Token.eofSymbol){
+            int s = nextToken.symbol;
+            if (head && open == 1 && s == symbol){
+                return true;
+            }
+            if (!head && open == 0 && (s == Token.semicolonSymbol || s == Token.endSymbol
+                    || s == Token.elseSymbol || s == Token.untilSymbol)){
+                return false;
+            }
+            nextToken = lex.getNextToken();
+            tokensTaken++;
+            if (s == Token.ifSymbol || s == Token.whileSymbol || s == Token.forSymbol
+                    || (s == Token.doSymbol && previous != Token.rightParenthesis)){
+                // a "do" after ")" belongs to a for statement, already counted
+                open++;
+            }else if (s == Token.endSymbol){
+                open--;
+                // the word after "end" closes the statement rather than opening another
+                if (nextToken.symbol == Token.ifSymbol || nextToken.symbol == Token.loopSymbol){
+                    s = nextToken.symbol;
+                    nextToken = lex.getNextToken();
+                    tokensTaken++;
+                }
+            }else if (s == Token.untilSymbol){
+                open--;
+            }
+            previous = s;
+            if (head && open == 0){
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Recovers from an error in the head of a compound statement, such as its condition, carrying on after the symbol
+     * that ends the head if it can be found
+     * @param e the error
+     * @param level the number of non terminals open when the head started
+     * @param symbol the symbol that ends the head, such as "then"
+     * @param tabs the indentation of the symbol
+     */
+    private void recoverHead(CompilationException e, int level, int symbol, int tabs) throws IOException, CompilationException {
+        if (!recovering){
+            throw e;
+        }
+        recover(e, level);
+        if (!synchronise(symbol)){
+            // the whole statement has been skipped
+            throw alreadyReported;
+        }
+        printTabs(tabs);
+        acceptTerminal(symbol);
+    }
+
+    /**
+     * Finishes every open level of a list production, innermost first
+     * @param name the name of the non terminal
+     * @param tabs the indentation of the outermost level
+     * @param depth the number of open levels
+     */
+    private void finishLevels(String name, int tabs, int depth){
+        while (depth > 0){
+            depth--;
+            printTabs(tabs + depth);
+            leaveContext();
+            myGenerate.finishNonterminal(name);
         }
     }
+
+    /**
+     * The deepest nesting the last parse reached, for instrumentation
+     * @return the most non terminals that were open at once
+     */
+    @Override
+    public int getMaxDepth(){
+        return maxDepth;
+    }
+
+    private void printTabs(int num_of_tabs){
+        if (tracing)
+            myGenerate.indent(num_of_tabs);
+    }
     /**
      * <StatementPart> non terminal function, calls at the very start of the process
      * 
@@ -52,30 +294,64 @@ public class SyntaxAnalyser extends AbstractSyntaxAnalyser{
     public void _statementPart_() throws IOException, CompilationException {
         myGenerate.commenceNonterminal("<statement part>");
         int tabs = 0;
-        Token currentNexToken = nextToken;
+        contextDepth = 0;
+        maxDepth = 0;
+        enterContext("<statement part>");
         try {
             // find begin symbol
             printTabs(tabs + 1);
             acceptTerminal(Token.beginSymbol);
-            currentNexToken = nextToken;
             // call statementList()
-            statementList(tabs + 1);
+            statementList(tabs + 1, true);
             // find end symbol
-            printTabs(tabs + 1);
-            acceptTerminal(Token.endSymbol);
-            currentNexToken = nextToken;
+            while (true){
+                printTabs(tabs + 1);
+                try {
+                    acceptTerminal(Token.endSymbol);
+                    break;
+                } catch (CompilationException e) {
+                    if (!recovering || nextToken.symbol == Token.eofSymbol){
+                        throw e;
+                    }
+                    // something stray after the statements: skip it, carrying on with any statements after it
+                    recover(e, contextDepth);
+                    do {
+                        nextToken = lex.getNextToken();
+                        tokensTaken++;
+                    } while (nextToken.symbol != Token.endSymbol && nextToken.symbol != Token.eofSymbol
+                            && !startsStatement(nextToken.symbol));
+                    if (startsStatement(nextToken.symbol)){
+                        statementList(tabs + 1, true);
+                    }
+                }
+            }
         } catch (CompilationException e) {
-            // only have to throw statementList error because acceptTerminal error is handled inside acceptTerminal
-            throw new CompilationException(createErrorMessage_nonTerminal("<statement part>", currentNexToken), e);
-        } catch (Exception e){
-            throw e;
+            if (pendingError != null && tokensTaken == lastErrorAt){
+                // the error held back, met again on the way out, is the one the parse fails with
+                e = pendingError;
+                pendingError = null;
+                contextDepth = 0;
+                throw e;
+            }
+            // errors pass straight up to here, the context stack says which non terminals they passed through
+            reportPending();
+            throw contextChain(e);
         }
+        leaveContext();
         printTabs(tabs);
         myGenerate.finishNonterminal("<statement part>");
+
+        // errors recovered from still fail the parse, with the last of them
+        if (pendingError != null){
+            CompilationException e = pendingError;
+            pendingError = null;
+            throw e;
+        }
     }
 
     /**
      * Function to check if the next symbol shall be accepted or not, if yes then call insertTerminal() and getNextToken() to move on to the next token. If not accepted call reportError and throw CompilationException
+     * Accepting a terminal also moves the line the innermost open non terminal reports errors against
      * @param symbol the next valid token
      */
     @Override
@@ -85,6 +361,11 @@ public class SyntaxAnalyser extends AbstractSyntaxAnalyser{
         if (nextToken.symbol == symbol){
             myGenerate.insertTerminal(nextToken);
             nextToken = lex.getNextToken();
+            tokensTaken++;
+            // errors from here on are reported against the token after the one accepted
+            if (contextDepth > 0){
+                contextLines[contextDepth - 1] = nextToken.lineNumber;
+            }
         }else{
             myGenerate.reportError(nextToken, createErrorMessage_Terminal(nextToken, Token.getName(symbol)));
         }
@@ -93,38 +374,122 @@ public class SyntaxAnalyser extends AbstractSyntaxAnalyser{
     /**
      * For handling a list of statements
      * 
-     * <StatementList> non terminal calls <Statement> and if the next symbol is a ; then recurse until the list runs out
+     * <StatementList> non terminal calls <Statement> and if the next symbol is a ; then opens a nested list, until the list runs out.
+     * The nesting is tracked in a loop rather than by recursion, so long lists cannot overflow the stack
      * 
      * statement list ::= <statement> | <statement list> ; <statement>
      * @throws IOException
      * @throws CompilationException throws CompilationException with the Exception stack
      */
     public void statementList(int tabs) throws IOException, CompilationException {
-        printTabs(tabs);
-        myGenerate.commenceNonterminal("<statement list>");
-        Token currentNexToken = nextToken;
-        
-        try{
+        statementList(tabs, false);
+    }
+
+    /**
+     * As above, for the outermost statement list its statements going through outermostStatement()
+     * @param outermost whether this is the statement list of the statement part
+     */
+    private void statementList(int tabs, boolean outermost) throws IOException, CompilationException {
+        int depth = 0;
+
+        while (true) {
+            printTabs(tabs + depth);
+            myGenerate.commenceNonterminal("<statement list>");
+            enterContext("<statement list>");
+            depth++;
+
             // single statement
-            statement(tabs + 1);
+            int level = contextDepth;
+            try {
+                if (outermost){
+                    outermostStatement(tabs + depth);
+                }else{
+                    statement(tabs + depth);
+                }
+            } catch (CompilationException e) {
+                if (!recovering){
+                    throw e;
+                }
+                // carry on with the next statement, or whatever follows the list
+                recover(e, level);
+                synchronise(-1);
+            }
 
             // multiple statements
-            // if the next symbol is a ; then keep recurse statementList()
-            if (nextToken.symbol == Token.semicolonSymbol){
-                printTabs(tabs + 1);
-            acceptTerminal(Token.semicolonSymbol);
-                currentNexToken = nextToken;
-                statementList(tabs + 1);
+            // if the next symbol is a ; then the rest of the list nests one level deeper
+            if (nextToken.symbol != Token.semicolonSymbol){
+                if (!recovering || !startsStatement(nextToken.symbol)){
+                    break;
+                }
+                // no statement can be followed by another without a ;, so it is missing: carry on as if it were there
+                try {
+                    acceptTerminal(Token.semicolonSymbol);
+                } catch (CompilationException e) {
+                    recover(e, contextDepth);
+                }
+                continue;
             }
+            printTabs(tabs + depth);
+            acceptTerminal(Token.semicolonSymbol);
+        }
+
+        finishLevels("<statement list>", tabs, depth);
+    }
+
+    /**
+     * Whether a symbol can start a statement, which none of the symbols that can follow one can
+     * @param symbol the symbol
+     * @return whether it is an identifier, "if", "while", "call", "do" or "for"
+     */
+    private static boolean startsStatement(int symbol){
+        return symbol == Token.identifier || symbol == Token.ifSymbol || symbol == Token.whileSymbol
+                || symbol == Token.callSymbol || symbol == Token.doSymbol || symbol == Token.forSymbol;
+    }
+
+    /**
+     * Parses one statement of the outermost statement list, a hook for analysers that keep the work done on each
+     * @param tabs the indentation of the statement
+     * @throws IOException
+     * @throws CompilationException
+     */
+    void outermostStatement(int tabs) throws IOException, CompilationException {
+        statement(tabs);
+    }
+
+    /**
+     * Parses one statement on its own, starting from the next token, as a worker parsing part of a source does
+     * @return whether it parsed without error
+     * @throws IOException
+     */
+    boolean isolatedStatement() throws IOException {
+        contextDepth = 0;
+        maxDepth = 0;
+        try {
+            statement(0);
+            return true;
         } catch (CompilationException e) {
-            // TODO: handle exception
-            throw new CompilationException(createErrorMessage_nonTerminal("<statement list>", currentNexToken), e);
-        } catch (Exception e){
-            throw e;
+            return false;
+        }
+    }
+
+    /**
+     * Carries on from a later token, as after a statement replayed rather than parsed
+     * @param next the token after the statement
+     * @param taken the number of tokens the statement took
+     */
+    void resumeAt(Token next, int taken){
+        nextToken = next;
+        tokensTaken += taken;
+    }
+
+    /**
+     * Counts non terminals opened elsewhere, such as in a statement parsed on another thread, as if opened here
+     * @param depth the most that were open at once, on top of those open here
+     */
+    void reachedDepth(int depth){
+        if (contextDepth + depth > maxDepth){
+            maxDepth = contextDepth + depth;
         }
-        
-        printTabs(tabs);
-        myGenerate.finishNonterminal("<statement list>");
     }
 
     /**
@@ -139,41 +504,31 @@ public class SyntaxAnalyser extends AbstractSyntaxAnalyser{
     public void statement(int tabs) throws IOException, CompilationException {
         printTabs(tabs);
         myGenerate.commenceNonterminal("<statement>");
-        Token currentNexToken = nextToken;
-        try {   
-            try {
-                switch (nextToken.symbol) {
-                    case Token.identifier:
-                        assignmentStatement(tabs + 1);
-                        break;
-                    case Token.ifSymbol:
-                        ifStatement(tabs + 1);  
-                        break;
-                    case Token.whileSymbol:
-                        whileStatement(tabs + 1);
-                        break;
-                    case Token.callSymbol:
-                        procedureStatement(tabs + 1);
-                        break;  
-                    case Token.untilSymbol:
-                        untilStatement(tabs + 1);
-                        break;
-                    case Token.forSymbol:
-                        forStatement(tabs + 1);
-                        break;
-                    default:
-                        String errorMessage = "File \"" + filename + "\" line/char " + Integer.toString(nextToken.lineNumber) + ": expected " + "<AssignmentStatement> or <IfStatement> or <WhileStatement> or <ProcedureStatement> or <UntilStatement> or <ForStatement" + "> found \"" + Token.getName(nextToken.symbol) + "\" symbol instead";
-                        throw new CompilationException(errorMessage);
-                }
-            } catch (Exception e){
-                throw e;
-            }
-        } catch (CompilationException e) {
-            // TODO: handle exception
-            throw new CompilationException(createErrorMessage_nonTerminal("<statement>", currentNexToken), e);
-        } catch (Exception e){
-            throw e;
+        enterContext("<statement>");
+        switch (nextToken.symbol) {
+            case Token.identifier:
+                assignmentStatement(tabs + 1);
+                break;
+            case Token.ifSymbol:
+                ifStatement(tabs + 1);  
+                break;
+            case Token.whileSymbol:
+                whileStatement(tabs + 1);
+                break;
+            case Token.callSymbol:
+                procedureStatement(tabs + 1);
+                break;  
+            case Token.doSymbol:
+                untilStatement(tabs + 1);
+                break;
+            case Token.forSymbol:
+                forStatement(tabs + 1);
+                break;
+            default:
+                String errorMessage = "File \"" + filename + "\" line/char " + Integer.toString(nextToken.lineNumber) + ": expected " + "<AssignmentStatement> or <IfStatement> or <WhileStatement> or <ProcedureStatement> or <UntilStatement> or <ForStatement" + "> found \"" + Token.getName(nextToken.symbol) + "\" symbol instead";
+                throw new CompilationException(errorMessage);
         }
+        leaveContext();
         printTabs(tabs);
         myGenerate.finishNonterminal("<statement>");
     }
@@ -190,29 +545,20 @@ public class SyntaxAnalyser extends AbstractSyntaxAnalyser{
     public void assignmentStatement(int tabs) throws IOException, CompilationException {
         printTabs(tabs);
         myGenerate.commenceNonterminal("<assignment statement>");
-        Token currentNexToken = nextToken;
-        try{
-            printTabs(tabs + 1);
-            acceptTerminal(Token.identifier);
-            currentNexToken = nextToken;
-            printTabs(tabs + 1);
-            acceptTerminal(Token.becomesSymbol);
-            currentNexToken = nextToken;
+        enterContext("<assignment statement>");
+        printTabs(tabs + 1);
+        acceptTerminal(Token.identifier);
+        printTabs(tabs + 1);
+        acceptTerminal(Token.becomesSymbol);
 
 
-            if (nextToken.symbol == Token.stringConstant) {     //if next token is a string constant
-                printTabs(tabs + 1);
-                acceptTerminal(Token.stringConstant);
-                currentNexToken = nextToken;
-            } else {
-                expression(tabs + 1);
-            }
-        } catch (CompilationException e) {
-            // TODO: handle exception
-            throw new CompilationException(createErrorMessage_nonTerminal("<assignment statement>", currentNexToken), e);
-        } catch (Exception e){
-            throw e;
+        if (nextToken.symbol == Token.stringConstant) {     //if next token is a string constant
+            printTabs(tabs + 1);
+            acceptTerminal(Token.stringConstant);
+        } else {
+            expression(tabs + 1);
         }
+        leaveContext();
         printTabs(tabs);
         myGenerate.finishNonterminal("<assignment statement>");
     }
@@ -230,33 +576,28 @@ public class SyntaxAnalyser extends AbstractSyntaxAnalyser{
     public void ifStatement(int tabs) throws IOException, CompilationException {
         printTabs(tabs);
         myGenerate.commenceNonterminal("<if statement>");
-        Token currentNexToken = nextToken;
+        enterContext("<if statement>");
+        printTabs(tabs + 1);
+        acceptTerminal(Token.ifSymbol);
+        int level = contextDepth;
         try {
-            printTabs(tabs + 1);
-            acceptTerminal(Token.ifSymbol);
-            currentNexToken = nextToken;
             condition(tabs + 1);
             printTabs(tabs + 1);
             acceptTerminal(Token.thenSymbol);
-            currentNexToken = nextToken;
-            statementList(tabs + 1);
-            if (nextToken.symbol == Token.elseSymbol) {
-                printTabs(tabs + 1);
-            acceptTerminal(Token.elseSymbol);
-                currentNexToken = nextToken;
-                statementList(tabs + 1);
-            }
-            printTabs(tabs + 1);
-            acceptTerminal(Token.endSymbol);
-            currentNexToken = nextToken;
-            printTabs(tabs + 1);
-            acceptTerminal(Token.ifSymbol);
-            currentNexToken = nextToken;
         } catch (CompilationException e) {
-            throw new CompilationException(createErrorMessage_nonTerminal("<if statement>", currentNexToken), e);
-        } catch (Exception e) {
-            throw e;
+            recoverHead(e, level, Token.thenSymbol, tabs + 1);
         }
+        statementList(tabs + 1);
+        if (nextToken.symbol == Token.elseSymbol) {
+            printTabs(tabs + 1);
+            acceptTerminal(Token.elseSymbol);
+            statementList(tabs + 1);
+        }
+        printTabs(tabs + 1);
+        acceptTerminal(Token.endSymbol);
+        printTabs(tabs + 1);
+        acceptTerminal(Token.ifSymbol);
+        leaveContext();
         printTabs(tabs);
         myGenerate.finishNonterminal("<if statement>");
     }
@@ -274,28 +615,24 @@ public class SyntaxAnalyser extends AbstractSyntaxAnalyser{
     public void whileStatement(int tabs) throws IOException, CompilationException {
         printTabs(tabs);
         myGenerate.commenceNonterminal("<while statement>");
-        Token currentNexToken = nextToken;
+        enterContext("<while statement>");
+        printTabs(tabs + 1);
+        acceptTerminal(Token.whileSymbol);
+        int level = contextDepth;
         try {
-            printTabs(tabs + 1);
-            acceptTerminal(Token.whileSymbol);
-            currentNexToken = nextToken;
             condition(tabs + 1);
             printTabs(tabs + 1);
             acceptTerminal(Token.loopSymbol);
-            currentNexToken = nextToken;
-            statementList(tabs + 1);
-            printTabs(tabs + 1);
-            acceptTerminal(Token.endSymbol);
-            currentNexToken = nextToken;
-            printTabs(tabs + 1);
-            acceptTerminal(Token.loopSymbol);
-            currentNexToken = nextToken;
-
         } catch (CompilationException e) {
-            throw new CompilationException(createErrorMessage_nonTerminal("<while statement>", currentNexToken), e);
-        } catch (Exception e) {
-            throw e;
+            recoverHead(e, level, Token.loopSymbol, tabs + 1);
         }
+        statementList(tabs + 1);
+        printTabs(tabs + 1);
+        acceptTerminal(Token.endSymbol);
+        printTabs(tabs + 1);
+        acceptTerminal(Token.loopSymbol);
+
+        leaveContext();
         printTabs(tabs);
         myGenerate.finishNonterminal("<while statement>");
     }
@@ -312,26 +649,17 @@ public class SyntaxAnalyser extends AbstractSyntaxAnalyser{
     public void procedureStatement(int tabs) throws IOException, CompilationException {
         printTabs(tabs);
         myGenerate.commenceNonterminal("<procedure statement>");
-        Token currentNexToken = nextToken;
-        try {
-            printTabs(tabs + 1);
-            acceptTerminal(Token.callSymbol);
-            currentNexToken = nextToken;
-            printTabs(tabs + 1);
-            acceptTerminal(Token.identifier);
-            currentNexToken = nextToken;
-            printTabs(tabs + 1);
-            acceptTerminal(Token.leftParenthesis);
-            currentNexToken = nextToken;
-            argumentList(tabs + 1);
-            printTabs(tabs + 1);
-            acceptTerminal(Token.rightParenthesis);
-            currentNexToken = nextToken;
-        } catch (CompilationException e) {
-            throw new CompilationException(createErrorMessage_nonTerminal("<procedure statement>", currentNexToken), e);
-        } catch (Exception e) {
-            throw e;
-        }
+        enterContext("<procedure statement>");
+        printTabs(tabs + 1);
+        acceptTerminal(Token.callSymbol);
+        printTabs(tabs + 1);
+        acceptTerminal(Token.identifier);
+        printTabs(tabs + 1);
+        acceptTerminal(Token.leftParenthesis);
+        argumentList(tabs + 1);
+        printTabs(tabs + 1);
+        acceptTerminal(Token.rightParenthesis);
+        leaveContext();
         printTabs(tabs);
         myGenerate.finishNonterminal("<procedure statement>");
     }
@@ -349,21 +677,14 @@ public class SyntaxAnalyser extends AbstractSyntaxAnalyser{
     public void untilStatement(int tabs) throws IOException, CompilationException {
         printTabs(tabs);
         myGenerate.commenceNonterminal("<until statement>");
-        Token currentNexToken = nextToken;
-        try {
-            printTabs(tabs + 1);
-            acceptTerminal(Token.doSymbol);
-            currentNexToken = nextToken;
-            statementList(tabs + 1);
-            printTabs(tabs + 1);
-            acceptTerminal(Token.untilSymbol);
-            currentNexToken = nextToken;
-            condition(tabs + 1);
-        } catch (CompilationException e) {
-            throw new CompilationException(createErrorMessage_nonTerminal("<until statement>", currentNexToken), e);
-        } catch (Exception e) {
-            throw e;
-        }
+        enterContext("<until statement>");
+        printTabs(tabs + 1);
+        acceptTerminal(Token.doSymbol);
+        statementList(tabs + 1);
+        printTabs(tabs + 1);
+        acceptTerminal(Token.untilSymbol);
+        condition(tabs + 1);
+        leaveContext();
         printTabs(tabs);
         myGenerate.finishNonterminal("<until statement>");
     }
@@ -381,41 +702,33 @@ public class SyntaxAnalyser extends AbstractSyntaxAnalyser{
     public void forStatement(int tabs) throws IOException, CompilationException {
         printTabs(tabs);
         myGenerate.commenceNonterminal("<for statement>");
-        Token currentNexToken = nextToken;
+        enterContext("<for statement>");
+        printTabs(tabs + 1);
+        acceptTerminal(Token.forSymbol);
+        int level = contextDepth;
         try {
-            printTabs(tabs + 1);
-            acceptTerminal(Token.forSymbol);
-            currentNexToken = nextToken;
             printTabs(tabs + 1);
             acceptTerminal(Token.leftParenthesis);
-            currentNexToken = nextToken;
             assignmentStatement(tabs + 1);
             printTabs(tabs + 1);
             acceptTerminal(Token.semicolonSymbol);
-            currentNexToken = nextToken;
             condition(tabs + 1);
             printTabs(tabs + 1);
             acceptTerminal(Token.semicolonSymbol);
-            currentNexToken = nextToken;
             assignmentStatement(tabs + 1);
             printTabs(tabs + 1);
             acceptTerminal(Token.rightParenthesis);
-            currentNexToken = nextToken;
             printTabs(tabs + 1);
             acceptTerminal(Token.doSymbol);
-            currentNexToken = nextToken;
-            statementList(tabs + 1);
-            printTabs(tabs + 1);
-            acceptTerminal(Token.endSymbol);
-            currentNexToken = nextToken;
-            printTabs(tabs + 1);
-            acceptTerminal(Token.loopSymbol);
-            currentNexToken = nextToken;
         } catch (CompilationException e) {
-            throw new CompilationException(createErrorMessage_nonTerminal("<for statement>", currentNexToken), e);
-        } catch (Exception e) {
-            throw e;
+            recoverHead(e, level, Token.doSymbol, tabs + 1);
         }
+        statementList(tabs + 1);
+        printTabs(tabs + 1);
+        acceptTerminal(Token.endSymbol);
+        printTabs(tabs + 1);
+        acceptTerminal(Token.loopSymbol);
+        leaveContext();
         printTabs(tabs);
         myGenerate.finishNonterminal("<for statement>");
     }
@@ -423,33 +736,31 @@ public class SyntaxAnalyser extends AbstractSyntaxAnalyser{
     /**
      * For handling list of arguments
      * 
-     * <ArgumentList> accepts infinite "identifier" symbol seperated by a "," symbol
+     * <ArgumentList> accepts infinite "identifier" symbol seperated by a "," symbol, each "," opening a nested list
      * 
      * argument list ::= identifier | <argument list> , identifier
      * @throws IOException
      * @throws CompilationException
      */
     public void argumentList(int tabs) throws IOException, CompilationException {
-        printTabs(tabs);
-        myGenerate.commenceNonterminal("<argument list>");
-        Token currentNexToken = nextToken;
-        try {
-            printTabs(tabs + 1);
+        int depth = 0;
+
+        while (true) {
+            printTabs(tabs + depth);
+            myGenerate.commenceNonterminal("<argument list>");
+            enterContext("<argument list>");
+            depth++;
+
+            printTabs(tabs + depth);
             acceptTerminal(Token.identifier);
-            currentNexToken = nextToken;
-            if (nextToken.symbol == Token.commaSymbol) {
-                printTabs(tabs + 1);
-            acceptTerminal(Token.commaSymbol);
-                currentNexToken = nextToken;
-                argumentList(tabs + 1);
+            if (nextToken.symbol != Token.commaSymbol) {
+                break;
             }
-        } catch (CompilationException e) {
-            throw new CompilationException(createErrorMessage_nonTerminal("<argument list>", currentNexToken), e);
-        } catch (Exception e) {
-            throw e;
+            printTabs(tabs + depth);
+            acceptTerminal(Token.commaSymbol);
         }
-        printTabs(tabs);
-        myGenerate.finishNonterminal("<argument list>");
+
+        finishLevels("<argument list>", tabs, depth);
     }
 
     
@@ -465,34 +776,25 @@ public class SyntaxAnalyser extends AbstractSyntaxAnalyser{
     public void condition(int tabs) throws IOException, CompilationException {
         printTabs(tabs);
         myGenerate.commenceNonterminal("<condition>");
-        Token currentNexToken = nextToken;
-        try {
-            printTabs(tabs + 1);
-            acceptTerminal(Token.identifier);
-            currentNexToken = nextToken;
+        enterContext("<condition>");
+        printTabs(tabs + 1);
+        acceptTerminal(Token.identifier);
 
-            //???? might not need to throw new exception
-            conditionalOperator(tabs + 1);
-            
-            if (nextToken.symbol == Token.identifier) {
-                printTabs(tabs + 1);
+        //???? might not need to throw new exception
+        conditionalOperator(tabs + 1);
+        
+        if (nextToken.symbol == Token.identifier) {
+            printTabs(tabs + 1);
             acceptTerminal(Token.identifier);
-                currentNexToken = nextToken;
-            } else if (nextToken.symbol == Token.numberConstant) {
-                printTabs(tabs + 1);
+        } else if (nextToken.symbol == Token.numberConstant) {
+            printTabs(tabs + 1);
             acceptTerminal(Token.numberConstant);
-                currentNexToken = nextToken;
-            } else if (nextToken.symbol == Token.stringConstant) {
-                printTabs(tabs + 1);
+        } else if (nextToken.symbol == Token.stringConstant) {
+            printTabs(tabs + 1);
             acceptTerminal(Token.stringConstant);
-                currentNexToken = nextToken;
-            }
-            
-        } catch (CompilationException e) {
-            throw new CompilationException(createErrorMessage_nonTerminal("<condition>", currentNexToken), e);
-        } catch (Exception e) {
-            throw e;
         }
+        
+        leaveContext();
         printTabs(tabs);
         myGenerate.finishNonterminal("<condition>");
     }
@@ -510,47 +812,36 @@ public class SyntaxAnalyser extends AbstractSyntaxAnalyser{
     public void conditionalOperator(int tabs) throws IOException, CompilationException {
         printTabs(tabs);
         myGenerate.commenceNonterminal("<conditional operator>");
-        Token currentNexToken = nextToken;
-        try {
-            switch (nextToken.symbol) {
-                case Token.greaterThanSymbol:
-                    printTabs(tabs + 1);
-            acceptTerminal(Token.greaterThanSymbol);
-                    currentNexToken = nextToken;
-                    break;
-                case Token.greaterEqualSymbol:
-                    printTabs(tabs + 1);
-            acceptTerminal(Token.greaterEqualSymbol);
-                    currentNexToken = nextToken;
-                    break;
-                case Token.equalSymbol:
-                    printTabs(tabs + 1);
-            acceptTerminal(Token.equalSymbol);
-                    currentNexToken = nextToken;
-                    break;
-                case Token.notEqualSymbol:
-                    printTabs(tabs + 1);
-            acceptTerminal(Token.notEqualSymbol);
-                    currentNexToken = nextToken;
-                    break;
-                case Token.lessThanSymbol:
-                    printTabs(tabs + 1);
-            acceptTerminal(Token.lessThanSymbol);
-                    currentNexToken = nextToken;
-                    break;
-                case Token.lessEqualSymbol:
-                    printTabs(tabs + 1);
-            acceptTerminal(Token.lessEqualSymbol);
-                    currentNexToken = nextToken;
-                    break;
-                default:
-                    myGenerate.reportError(nextToken, createErrorMessage_Terminal(nextToken, "ConditionalOperator: greaterThanSymbol, greaterEqualSymbol, equalSymbol, notEqualSymbol, lessThanSymbol, lessEqualSymbol"));
-            }
-        } catch (CompilationException e) {
-            throw new CompilationException(createErrorMessage_nonTerminal("<conditional operator>", currentNexToken), e);
-        } catch (Exception e) {
-            throw e;
+        enterContext("<conditional operator>");
+        switch (nextToken.symbol) {
+            case Token.greaterThanSymbol:
+                printTabs(tabs + 1);
+                acceptTerminal(Token.greaterThanSymbol);
+                break;
+            case Token.greaterEqualSymbol:
+                printTabs(tabs + 1);
+                acceptTerminal(Token.greaterEqualSymbol);
+                break;
+            case Token.equalSymbol:
+                printTabs(tabs + 1);
+                acceptTerminal(Token.equalSymbol);
+                break;
+            case Token.notEqualSymbol:
+                printTabs(tabs + 1);
+                acceptTerminal(Token.notEqualSymbol);
+                break;
+            case Token.lessThanSymbol:
+                printTabs(tabs + 1);
+                acceptTerminal(Token.lessThanSymbol);
+                break;
+            case Token.lessEqualSymbol:
+                printTabs(tabs + 1);
+                acceptTerminal(Token.lessEqualSymbol);
+                break;
+            default:
+                myGenerate.reportError(nextToken, createErrorMessage_Terminal(nextToken, "ConditionalOperator: greaterThanSymbol, greaterEqualSymbol, equalSymbol, notEqualSymbol, lessThanSymbol, lessEqualSymbol"));
         }
+        leaveContext();
         printTabs(tabs);
         myGenerate.finishNonterminal("<conditional operator>");
     }
@@ -559,74 +850,61 @@ public class SyntaxAnalyser extends AbstractSyntaxAnalyser{
     /**
      * For handling expressions
      * 
-     * <Expression> accepts infinite amount of <Term> seperated by a "+" or "-" symbols
+     * <Expression> accepts infinite amount of <Term> seperated by a "+" or "-" symbols, each operator opening a nested expression
      * 
      * expression ::= <term> | <expression> + <term> | <expression> - <term>
      * @throws IOException
      * @throws CompilationException
      */
     public void expression(int tabs) throws IOException, CompilationException {
-        printTabs(tabs);
-        myGenerate.commenceNonterminal("<expression>");
-        Token currentNexToken = nextToken;
-        try {
-            term(tabs + 1);
+        int depth = 0;
 
-            if(nextToken.symbol == Token.plusSymbol) {
-                printTabs(tabs + 1);
-            acceptTerminal(Token.plusSymbol);
-                currentNexToken = nextToken;
-                expression(tabs + 1);
-            } else if (nextToken.symbol == Token.minusSymbol) {
-                printTabs(tabs + 1);
-            acceptTerminal(Token.minusSymbol);
-                currentNexToken = nextToken;
-                expression(tabs + 1);
-            }
+        while (true) {
+            printTabs(tabs + depth);
+            myGenerate.commenceNonterminal("<expression>");
+            enterContext("<expression>");
+            depth++;
 
-        } catch (CompilationException e) {
-            throw new CompilationException(createErrorMessage_nonTerminal("<expression>", currentNexToken), e);
-        } catch (Exception e) {
-            throw e;
+            term(tabs + depth);
+
+            if (nextToken.symbol != Token.plusSymbol && nextToken.symbol != Token.minusSymbol) {
+                break;
+            }
+            printTabs(tabs + depth);
+            acceptTerminal(nextToken.symbol);
         }
-        printTabs(tabs);
-        myGenerate.finishNonterminal("<expression>");
+
+        finishLevels("<expression>", tabs, depth);
     }
 
     /**
      * For handling terms
      * 
-     * <Term> accepts infinite amounts of <Factor> seperated by a "*" or "/" symbol
+     * <Term> accepts infinite amounts of <Factor> seperated by a "*" or "/" symbol, each operator opening a nested term
      * 
      * term ::= <factor> | <term> * <factor> | <term> / <factor>
      * @throws IOException
      * @throws CompilationException
      */
     public void term(int tabs) throws IOException, CompilationException {
-        printTabs(tabs);
-        myGenerate.commenceNonterminal("<term>");
-        Token currentNexToken = nextToken;
-        try {
-            factor(tabs + 1);
+        int depth = 0;
 
-            if(nextToken.symbol == Token.timesSymbol) {
-                printTabs(tabs + 1);
-            acceptTerminal(Token.timesSymbol);
-                currentNexToken = nextToken;
-                term(tabs + 1);
-            } else if (nextToken.symbol == Token.divideSymbol) {
-                printTabs(tabs + 1);
-            acceptTerminal(Token.divideSymbol);
-                currentNexToken = nextToken;
-                term(tabs + 1);
+        while (true) {
+            printTabs(tabs + depth);
+            myGenerate.commenceNonterminal("<term>");
+            enterContext("<term>");
+            depth++;
+
+            factor(tabs + depth);
+
+            if (nextToken.symbol != Token.timesSymbol && nextToken.symbol != Token.divideSymbol) {
+                break;
             }
-        } catch (CompilationException e) {
-            throw new CompilationException(createErrorMessage_nonTerminal("<term>", currentNexToken), e);
-        } catch (Exception e) {
-            throw e;
+            printTabs(tabs + depth);
+            acceptTerminal(nextToken.symbol);
         }
-        printTabs(tabs);
-        myGenerate.finishNonterminal("<term>");
+
+        finishLevels("<term>", tabs, depth);
     }
 
     /**
@@ -641,30 +919,21 @@ public class SyntaxAnalyser extends AbstractSyntaxAnalyser{
     public void factor(int tabs) throws IOException, CompilationException {
         printTabs(tabs);
         myGenerate.commenceNonterminal("<factor>");
-        Token currentNexToken = nextToken;
-        try {
-            if (nextToken.symbol == Token.identifier) {
-                printTabs(tabs + 1);
+        enterContext("<factor>");
+        if (nextToken.symbol == Token.identifier) {
+            printTabs(tabs + 1);
             acceptTerminal(Token.identifier);
-                currentNexToken = nextToken;
-            } else if (nextToken.symbol == Token.numberConstant) {
-                printTabs(tabs + 1);
+        } else if (nextToken.symbol == Token.numberConstant) {
+            printTabs(tabs + 1);
             acceptTerminal(Token.numberConstant);
-                currentNexToken = nextToken;
-            } else {
-                printTabs(tabs + 1);
+        } else {
+            printTabs(tabs + 1);
             acceptTerminal(Token.leftParenthesis);
-                currentNexToken = nextToken;
-                expression(tabs + 1);
-                printTabs(tabs + 1);
+            expression(tabs + 1);
+            printTabs(tabs + 1);
             acceptTerminal(Token.rightParenthesis);
-                currentNexToken = nextToken;
-            }
-        } catch (CompilationException e) {
-            throw new CompilationException(createErrorMessage_nonTerminal("<factor>", currentNexToken), e);
-        } catch (Exception e) {
-            throw e;
         }
+        leaveContext();
         printTabs(tabs);
         myGenerate.finishNonterminal("<factor>");
     }
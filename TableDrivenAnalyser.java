@@ -0,0 +1,416 @@
+
+/**
+ *
+ * A syntax analyser driven by an LL(1) parse table and an explicit stack,
+ * rather than a method per production.  The table is derived when the class
+ * loads from the grammar below, the same language SyntaxAnalyser accepts,
+ * and the analyser makes the same calls on Generate and reports the same
+ * errors, so the two can be swapped and compared.  Nesting is bounded only
+ * by the memory the stack can grow into.
+ *
+ * Lists are written right-recursively, as SyntaxAnalyser traces them, and
+ * the helper non-terminals that makes necessary are not traced.  Where
+ * SyntaxAnalyser carries on without checking the next token, as in taking
+ * the empty alternative of an optional part, the grammar marks a default
+ * production, used whatever the next token is; a non-terminal with only
+ * one production always uses it.
+ *
+ **/
+
+import java.io.* ;
+import java.util.* ;
+
+public class TableDrivenAnalyser extends AbstractSyntaxAnalyser
+{
+	/* Grammar symbols: terminals are the symbols from Token, below 64;
+	   non-terminal n is 64 + n; on the stack, 128 + n finishes non-terminal n. */
+	private static final int nonterminalBase = 64,
+			finishBase = 128 ;
+
+	/* The non-terminals, by number.  A name in angle brackets is traced. */
+	private static final ArrayList<String> names = new ArrayList<String>() ;
+	/* The productions: each one's non-terminal and right hand side. */
+	private static final ArrayList<Integer> lefts = new ArrayList<Integer>() ;
+	private static final ArrayList<int[]> rights = new ArrayList<int[]>() ;
+	/** The production used for a non-terminal whatever the next token, or -1. */
+	private static int[] defaults = new int[0] ;
+
+	private static int nonterminal(String name)
+	{
+		names.add(name) ;
+		defaults = Arrays.copyOf(defaults, names.size()) ;
+		defaults[names.size() - 1] = -1 ;
+		return nonterminalBase + names.size() - 1 ;
+	} // end of method nonterminal
+
+	/** Adds a production. */
+	private static void rule(int left, int... right)
+	{
+		lefts.add(left - nonterminalBase) ;
+		rights.add(right) ;
+	} // end of method rule
+
+	/** Adds a production used whatever the next token, unless another is chosen by it. */
+	private static void otherwise(int left, int... right)
+	{
+		defaults[left - nonterminalBase] = rights.size() ;
+		rule(left, right) ;
+	} // end of method otherwise
+
+	private static final int statementPart = nonterminal("<statement part>"),
+			statementList = nonterminal("<statement list>"),
+			statementListTail = nonterminal("statement list tail"),
+			statement = nonterminal("<statement>"),
+			assignmentStatement = nonterminal("<assignment statement>"),
+			assignedValue = nonterminal("assigned value"),
+			ifStatement = nonterminal("<if statement>"),
+			elsePart = nonterminal("else part"),
+			whileStatement = nonterminal("<while statement>"),
+			procedureStatement = nonterminal("<procedure statement>"),
+			untilStatement = nonterminal("<until statement>"),
+			forStatement = nonterminal("<for statement>"),
+			argumentList = nonterminal("<argument list>"),
+			argumentListTail = nonterminal("argument list tail"),
+			condition = nonterminal("<condition>"),
+			conditionalOperator = nonterminal("<conditional operator>"),
+			comparedValue = nonterminal("compared value"),
+			expression = nonterminal("<expression>"),
+			expressionTail = nonterminal("expression tail"),
+			term = nonterminal("<term>"),
+			termTail = nonterminal("term tail"),
+			factor = nonterminal("<factor>") ;
+
+	static
+	{
+		rule(statementPart, Token.beginSymbol, statementList, Token.endSymbol) ;
+
+		rule(statementList, statement, statementListTail) ;
+		rule(statementListTail, Token.semicolonSymbol, statementList) ;
+		otherwise(statementListTail) ;
+
+		rule(statement, assignmentStatement) ;
+		rule(statement, ifStatement) ;
+		rule(statement, whileStatement) ;
+		rule(statement, procedureStatement) ;
+		rule(statement, untilStatement) ;
+		rule(statement, forStatement) ;
+
+		rule(assignmentStatement, Token.identifier, Token.becomesSymbol, assignedValue) ;
+		rule(assignedValue, Token.stringConstant) ;
+		otherwise(assignedValue, expression) ;
+
+		rule(ifStatement, Token.ifSymbol, condition, Token.thenSymbol, statementList, elsePart, Token.endSymbol, Token.ifSymbol) ;
+		rule(elsePart, Token.elseSymbol, statementList) ;
+		otherwise(elsePart) ;
+
+		rule(whileStatement, Token.whileSymbol, condition, Token.loopSymbol, statementList, Token.endSymbol, Token.loopSymbol) ;
+
+		rule(procedureStatement, Token.callSymbol, Token.identifier, Token.leftParenthesis, argumentList, Token.rightParenthesis) ;
+
+		rule(untilStatement, Token.doSymbol, statementList, Token.untilSymbol, condition) ;
+
+		rule(forStatement, Token.forSymbol, Token.leftParenthesis, assignmentStatement, Token.semicolonSymbol,
+				condition, Token.semicolonSymbol, assignmentStatement, Token.rightParenthesis,
+				Token.doSymbol, statementList, Token.endSymbol, Token.loopSymbol) ;
+
+		rule(argumentList, Token.identifier, argumentListTail) ;
+		rule(argumentListTail, Token.commaSymbol, argumentList) ;
+		otherwise(argumentListTail) ;
+
+		rule(condition, Token.identifier, conditionalOperator, comparedValue) ;
+		rule(conditionalOperator, Token.greaterThanSymbol) ;
+		rule(conditionalOperator, Token.greaterEqualSymbol) ;
+		rule(conditionalOperator, Token.equalSymbol) ;
+		rule(conditionalOperator, Token.notEqualSymbol) ;
+		rule(conditionalOperator, Token.lessThanSymbol) ;
+		rule(conditionalOperator, Token.lessEqualSymbol) ;
+		rule(comparedValue, Token.identifier) ;
+		rule(comparedValue, Token.numberConstant) ;
+		rule(comparedValue, Token.stringConstant) ;
+		otherwise(comparedValue) ;
+
+		rule(expression, term, expressionTail) ;
+		rule(expressionTail, Token.plusSymbol, expression) ;
+		rule(expressionTail, Token.minusSymbol, expression) ;
+		otherwise(expressionTail) ;
+
+		rule(term, factor, termTail) ;
+		rule(termTail, Token.timesSymbol, term) ;
+		rule(termTail, Token.divideSymbol, term) ;
+		otherwise(termTail) ;
+
+		rule(factor, Token.identifier) ;
+		rule(factor, Token.numberConstant) ;
+		otherwise(factor, Token.leftParenthesis, expression, Token.rightParenthesis) ;
+	}
+
+	/** The production for each non-terminal and next token, or -1 for none. */
+	private static final int[][] table = buildTable() ;
+	/* The productions and names in the form the parse loop reads them. */
+	private static final int[][] productions = rights.toArray(new int[0][]) ;
+	private static final String[] traced = tracedNames() ;
+
+	/** @return Each non-terminal's traced name, or null if it is not traced. */
+	private static String[] tracedNames()
+	{
+		String[] traced = new String[names.size()] ;
+		for (int n = 0 ; n < traced.length ; n++)
+			if (names.get(n).startsWith("<"))
+				traced[n] = names.get(n) ;
+		return traced ;
+	} // end of method tracedNames
+
+	/** Derives the parse table from the FIRST and FOLLOW sets of the grammar.
+
+	  @throws IllegalStateException if the grammar is not LL(1).
+	 */
+	private static int[][] buildTable()
+	{
+		int count = names.size() ;
+		boolean[] nullable = new boolean[count] ;
+		BitSet[] first = new BitSet[count] ;
+		BitSet[] follow = new BitSet[count] ;
+		for (int n = 0 ; n < count ; n++)
+		{
+			first[n] = new BitSet(nonterminalBase) ;
+			follow[n] = new BitSet(nonterminalBase) ;
+		}
+		follow[statementPart - nonterminalBase].set(Token.eofSymbol) ;
+
+		// both sets grow until a pass over the productions adds nothing
+		boolean changed = true ;
+		while (changed)
+		{
+			changed = false ;
+			for (int p = 0 ; p < rights.size() ; p++)
+			{
+				int left = lefts.get(p) ;
+				int[] right = rights.get(p) ;
+				BitSet before = (BitSet) first[left].clone() ;
+				boolean wasNullable = nullable[left] ;
+				if (firstOf(right, 0, nullable, first, first[left]))
+					nullable[left] = true ;
+				changed |= !before.equals(first[left]) || (wasNullable != nullable[left]) ;
+
+				for (int i = 0 ; i < right.length ; i++)
+				{
+					if (right[i] < nonterminalBase)
+						continue ;
+					BitSet after = follow[right[i] - nonterminalBase] ;
+					int size = after.cardinality() ;
+					if (firstOf(right, i + 1, nullable, first, after))
+						after.or(follow[left]) ;
+					changed |= after.cardinality() != size ;
+				}
+			}
+		}
+
+		int[][] table = new int[count][nonterminalBase] ;
+		for (int n = 0 ; n < count ; n++)
+			Arrays.fill(table[n], -1) ;
+		for (int p = 0 ; p < rights.size() ; p++)
+		{
+			int left = lefts.get(p) ;
+			BitSet lookahead = new BitSet(nonterminalBase) ;
+			if (firstOf(rights.get(p), 0, nullable, first, lookahead))
+				lookahead.or(follow[left]) ;
+			for (int t = lookahead.nextSetBit(0) ; t >= 0 ; t = lookahead.nextSetBit(t + 1))
+			{
+				if ((table[left][t] >= 0) && (table[left][t] != p))
+					throw new IllegalStateException("grammar is not LL(1): " + names.get(left)
+							+ " has two productions for " + Token.getName(t)) ;
+				table[left][t] = p ;
+			}
+		}
+
+		// with only one production there is nothing to choose, so it is tried whatever the next token
+		int[] productionCount = new int[count] ;
+		for (int p = 0 ; p < rights.size() ; p++)
+			productionCount[lefts.get(p)]++ ;
+		for (int p = 0 ; p < rights.size() ; p++)
+			if ((productionCount[lefts.get(p)] == 1) && (defaults[lefts.get(p)] < 0))
+				defaults[lefts.get(p)] = p ;
+		return table ;
+	} // end of method buildTable
+
+	/** Adds the FIRST set of right[from..] to the given set.
+
+	  @return Whether right[from..] can derive the empty string.
+	 */
+	private static boolean firstOf(int[] right, int from, boolean[] nullable, BitSet[] first, BitSet into)
+	{
+		for (int i = from ; i < right.length ; i++)
+		{
+			if (right[i] < nonterminalBase)
+			{
+				into.set(right[i]) ;
+				return false ;
+			}
+			into.or(first[right[i] - nonterminalBase]) ;
+			if (!nullable[right[i] - nonterminalBase])
+				return false ;
+		}
+		return true ;
+	} // end of method firstOf
+
+	/** The name errors are reported against. */
+	private String filename ;
+
+	/* The traced non-terminals open, innermost last, and the line each reports if an error unwinds through it. */
+	private String[] contextNames = new String[64] ;
+	private int[] contextLines = new int[64] ;
+	private int contextDepth ;
+	/** The most non-terminals open at once in the last parse. */
+	private int maxDepth ;
+
+	/** The grammar symbols still to be matched, the next last. */
+	private int[] stack = new int[256] ;
+
+	/** Creates an analyser over the named file.
+
+	  @param filename The file to analyse.
+	  @throws IOException if the file cannot be opened.
+	 */
+	public TableDrivenAnalyser(String filename) throws IOException
+	{
+		this(new LexicalAnalyser(filename), filename) ;
+	} // end of constructor method
+
+	/** Creates an analyser over the given tokens.
+
+	  @param source The tokens to analyse.
+	  @param filename The name errors are reported against.
+	 */
+	public TableDrivenAnalyser(TokenSource source, String filename)
+	{
+		lex = source ;
+		this.filename = filename ;
+	} // end of constructor method
+
+	/** @return The most non-terminals that were open at once in the last parse. */
+	public int getMaxDepth()
+	{
+		return maxDepth ;
+	} // end of method getMaxDepth
+
+	private void printTabs(int tabs)
+	{
+		if (tracing)
+			myGenerate.indent(tabs) ;
+	} // end of method printTabs
+
+	/** Parses the statement part by running the parse table until the stack empties. */
+	public void _statementPart_() throws IOException, CompilationException
+	{
+		contextDepth = 0 ;
+		maxDepth = 0 ;
+		int top = 0 ;
+		stack[top++] = statementPart ;
+		try {
+			while (top > 0)
+			{
+				int symbol = stack[--top] ;
+				if (symbol < nonterminalBase)
+				{
+					printTabs(contextDepth) ;
+					acceptTerminal(symbol) ;
+					continue ;
+				}
+				if (symbol >= finishBase)
+				{
+					contextDepth-- ;
+					printTabs(contextDepth) ;
+					myGenerate.finishNonterminal(contextNames[contextDepth]) ;
+					continue ;
+				}
+
+				int n = symbol - nonterminalBase ;
+				String name = traced[n] ;
+				if (name != null)
+				{
+					// the statement part is not indented as it starts
+					if (contextDepth > 0)
+						printTabs(contextDepth) ;
+					myGenerate.commenceNonterminal(name) ;
+					enterContext(name) ;
+				}
+
+				int next = nextToken.symbol ;
+				int p = ((next >= 0) && (next < nonterminalBase)) ? table[n][next] : -1 ;
+				if (p < 0)
+					p = defaults[n] ;
+				if (p < 0)
+					noProduction(symbol) ;
+
+				int[] right = productions[p] ;
+				if (top + right.length + 1 > stack.length)
+					stack = Arrays.copyOf(stack, Math.max(stack.length * 2, top + right.length + 1)) ;
+				if (name != null)
+					stack[top++] = finishBase + n ;
+				for (int i = right.length - 1 ; i >= 0 ; i--)
+					stack[top++] = right[i] ;
+			}
+		} catch (CompilationException e) {
+			// the context stack says which non-terminals the error passed through
+			for (int i = contextDepth - 1 ; i >= 0 ; i--)
+				e = new CompilationException(nonterminalMessage(contextNames[i], contextLines[i]), e) ;
+			contextDepth = 0 ;
+			throw e ;
+		}
+	} // end of method _statementPart_
+
+	/** Reports that no production of a non-terminal starts with the next token,
+	  in the words SyntaxAnalyser uses. */
+	private void noProduction(int symbol) throws CompilationException
+	{
+		if (symbol == statement)
+			throw new CompilationException("File \"" + filename + "\" line/char " + nextToken.lineNumber
+					+ ": expected <AssignmentStatement> or <IfStatement> or <WhileStatement> or <ProcedureStatement>"
+					+ " or <UntilStatement> or <ForStatement> found \"" + Token.getName(nextToken.symbol) + "\" symbol instead") ;
+		if (symbol == conditionalOperator)
+			myGenerate.reportError(nextToken, terminalMessage("ConditionalOperator: greaterThanSymbol, greaterEqualSymbol,"
+					+ " equalSymbol, notEqualSymbol, lessThanSymbol, lessEqualSymbol")) ;
+		throw new IllegalStateException("no production or default for " + names.get(symbol - nonterminalBase)) ;
+	} // end of method noProduction
+
+	/** Opens a traced non-terminal, reporting the next token's line until a terminal is accepted. */
+	private void enterContext(String name)
+	{
+		if (contextDepth == contextNames.length)
+		{
+			contextNames = Arrays.copyOf(contextNames, contextDepth * 2) ;
+			contextLines = Arrays.copyOf(contextLines, contextDepth * 2) ;
+		}
+		contextNames[contextDepth] = name ;
+		contextLines[contextDepth] = nextToken.lineNumber ;
+		contextDepth++ ;
+		if (contextDepth > maxDepth)
+			maxDepth = contextDepth ;
+	} // end of method enterContext
+
+	/** Accepts the next token if it is the given symbol, and reports an error if not. */
+	public void acceptTerminal(int symbol) throws IOException, CompilationException
+	{
+		if (nextToken.symbol == symbol)
+		{
+			myGenerate.insertTerminal(nextToken) ;
+			nextToken = lex.getNextToken() ;
+			// errors from here on are reported against the token after the one accepted
+			if (contextDepth > 0)
+				contextLines[contextDepth - 1] = nextToken.lineNumber ;
+		}
+		else
+			myGenerate.reportError(nextToken, terminalMessage(Token.getName(symbol))) ;
+	} // end of method acceptTerminal
+
+	private String terminalMessage(String expected)
+	{
+		return "File \"" + filename + "\", line/char " + nextToken.lineNumber + ": expected \"" + expected
+				+ "\" symbol found \"" + Token.getName(nextToken.symbol) + "\" symbol instead" ;
+	} // end of method terminalMessage
+
+	private String nonterminalMessage(String name, int line)
+	{
+		return "File \"" + filename + "\", line/char " + line + " in " + name ;
+	} // end of method nonterminalMessage
+} // end of class TableDrivenAnalyser
@@ -66,6 +66,8 @@ public class Token
 	public String text ;
 	/** The line number of the original text in the source file. */
 	public int lineNumber ;
+	/** An identifier's number in its lexer's IdentifierTable, or -1. */
+	public int id = -1 ;
 
 	/** Constructs a new token with a given token type and line number.
 
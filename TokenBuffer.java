@@ -0,0 +1,316 @@
+
+/**
+ *
+ * A reusable, growable buffer of tokens held in parallel primitive arrays.
+ *
+ * Token i is described by its symbol, line number, identifier number and
+ * the start and length of its text within a shared character array.
+ * Filling the buffer through LexicalAnalyser.fill() allocates nothing once
+ * the arrays have grown to size; text is only turned into an object when
+ * asked for, and then only once.  Text added as a String, such as a fixed
+ * symbol or an identifier's canonical name, is handed back as that String.
+ *
+ * getNextToken() refills one Token each time rather than making a new one,
+ * so a parser reading the buffer allocates nothing per token; the Token it
+ * returns is only valid until the next call.  token(i) makes a Token of its
+ * own, for callers that keep tokens.
+ *
+ **/
+
+import java.io.* ;
+import java.util.* ;
+
+public class TokenBuffer implements TokenSource
+{
+	/** The number of tokens room is made for initially. */
+	private static final int initialCapacity = 1024 ;
+
+	/* One entry per token. */
+	private int[] symbols = new int[initialCapacity] ;
+	private int[] starts = new int[initialCapacity] ;
+	private int[] lengths = new int[initialCapacity] ;
+	private int[] lines = new int[initialCapacity] ;
+	private int[] ids = new int[initialCapacity] ;
+	/** Each token's text as a String, if it was added as one or has been asked for; null otherwise. */
+	private String[] strings = new String[initialCapacity] ;
+	/** The text of every token, end to end. */
+	private char[] text = new char[initialCapacity * 4] ;
+
+	/** The number of tokens held. */
+	private int size ;
+	/** The number of characters of text held. */
+	private int textSize ;
+	/** The index of the next token getNextToken() hands out. */
+	private int position ;
+	/** The token getNextToken() refills and hands out. */
+	private final Token cursor = new Token(Token.eofSymbol, "", 0) ;
+
+	/** A view of one token's text, valid until the buffer is cleared. */
+	private class TokenText implements CharSequence
+	{
+		private final int start, length ;
+
+		TokenText(int s, int l)
+		{
+			start = s ;
+			length = l ;
+		} // end of constructor method
+
+		public int length()
+		{
+			return length ;
+		} // end of method length
+
+		public char charAt(int i)
+		{
+			if ((i < 0) || (i >= length))
+				throw new IndexOutOfBoundsException("index " + i + ", length " + length) ;
+			return text[start + i] ;
+		} // end of method charAt
+
+		public CharSequence subSequence(int from, int to)
+		{
+			if ((from < 0) || (to > length) || (from > to))
+				throw new IndexOutOfBoundsException("range " + from + ".." + to + ", length " + length) ;
+			return new TokenText(start + from, to - from) ;
+		} // end of method subSequence
+
+		/** @see Object.toString */
+		public String toString()
+		{
+			return new String(text, start, length) ;
+		} // end of method toString
+	} // end of class TokenText
+
+	/** Empties the buffer, keeping its storage for reuse. */
+	public void clear()
+	{
+		Arrays.fill(strings, 0, size, null) ;
+		size = 0 ;
+		textSize = 0 ;
+		position = 0 ;
+	} // end of method clear
+
+	/** Makes room for one more token with the given length of text.
+
+	  @param length The length of the token's text.
+	 */
+	private void ensureRoom(int length)
+	{
+		if (size == symbols.length)
+		{
+			int capacity = symbols.length * 2 ;
+			symbols = Arrays.copyOf(symbols, capacity) ;
+			starts = Arrays.copyOf(starts, capacity) ;
+			lengths = Arrays.copyOf(lengths, capacity) ;
+			lines = Arrays.copyOf(lines, capacity) ;
+			ids = Arrays.copyOf(ids, capacity) ;
+			strings = Arrays.copyOf(strings, capacity) ;
+		}
+		if (textSize + length > text.length)
+			text = Arrays.copyOf(text, Math.max(text.length * 2, textSize + length)) ;
+	} // end of method ensureRoom
+
+	/** Appends a token.
+
+	  @param symbol The type of symbol, typically as a class constant from Token.
+	  @param t The original string recognised from the source file.
+	  @param line The line number of the original string.
+	 */
+	public void add(int symbol, String t, int line)
+	{
+		add(symbol, t, line, -1) ;
+	} // end of method add
+
+	/** Appends a token with its identifier number.
+
+	  @param symbol The type of symbol, typically as a class constant from Token.
+	  @param t The original string recognised from the source file.
+	  @param line The line number of the original string.
+	  @param id The identifier's number in its lexer's IdentifierTable, or -1.
+	 */
+	public void add(int symbol, String t, int line, int id)
+	{
+		ensureRoom(t.length()) ;
+		t.getChars(0, t.length(), text, textSize) ;
+		append(symbol, t.length(), line, id, t) ;
+	} // end of method add
+
+	/** Appends a token from a StringBuffer.
+
+	  @param symbol The type of symbol, typically as a class constant from Token.
+	  @param t The original string recognised from the source file.
+	  @param line The line number of the original string.
+	 */
+	public void add(int symbol, StringBuffer t, int line)
+	{
+		add(symbol, t, line, -1) ;
+	} // end of method add
+
+	/** Appends a token from a StringBuffer with its identifier number.
+
+	  @param symbol The type of symbol, typically as a class constant from Token.
+	  @param t The original string recognised from the source file.
+	  @param line The line number of the original string.
+	  @param id The identifier's number in its lexer's IdentifierTable, or -1.
+	 */
+	public void add(int symbol, StringBuffer t, int line, int id)
+	{
+		ensureRoom(t.length()) ;
+		t.getChars(0, t.length(), text, textSize) ;
+		append(symbol, t.length(), line, id, null) ;
+	} // end of method add
+
+	/** Records a token whose text has just been copied to the end of text. */
+	private void append(int symbol, int length, int line, int id, String string)
+	{
+		strings[size] = string ;
+		symbols[size] = symbol ;
+		starts[size] = textSize ;
+		lengths[size] = length ;
+		lines[size] = line ;
+		ids[size] = id ;
+		textSize += length ;
+		size++ ;
+	} // end of method append
+
+	/** @return The number of tokens held. */
+	public int size()
+	{
+		return size ;
+	} // end of method size
+
+	/** @return The type of token i, typically as a class constant from Token. */
+	public int symbol(int i)
+	{
+		return symbols[i] ;
+	} // end of method symbol
+
+	/** @return The line number token i was found on. */
+	public int line(int i)
+	{
+		return lines[i] ;
+	} // end of method line
+
+	/** @return Token i's number in its lexer's IdentifierTable, or -1 if it is not an identifier. */
+	public int id(int i)
+	{
+		return ids[i] ;
+	} // end of method id
+
+	/** @return Where token i's text starts among the buffer's characters. */
+	public int start(int i)
+	{
+		return starts[i] ;
+	} // end of method start
+
+	/** @return The length of token i's text. */
+	public int length(int i)
+	{
+		return lengths[i] ;
+	} // end of method length
+
+	/** @return A view of token i's text, valid until the buffer is cleared. */
+	public CharSequence text(int i)
+	{
+		return new TokenText(starts[i], lengths[i]) ;
+	} // end of method text
+
+	/** @return Token i's text as a String, made the first time it is asked for. */
+	public String string(int i)
+	{
+		String s = strings[i] ;
+		if (s == null)
+		{
+			// a String is safe to share once made, so threads racing here at worst make one each
+			s = new String(text, starts[i], lengths[i]) ;
+			strings[i] = s ;
+		}
+		return s ;
+	} // end of method string
+
+	/** @return Token i as a new Token object, which the caller may keep. */
+	public Token token(int i)
+	{
+		Token t = new Token(symbols[i], string(i), lines[i]) ;
+		t.id = ids[i] ;
+		return t ;
+	} // end of method token
+
+	/** @return The index of the next token getNextToken() hands out. */
+	public int position()
+	{
+		return position ;
+	} // end of method position
+
+	/** Moves the read position, so tokens can be consumed again or skipped.
+
+	  @param i The index of the next token getNextToken() is to hand out.
+	 */
+	public void seek(int i)
+	{
+		position = i ;
+	} // end of method seek
+
+	/** Hands out tokens in order, repeating the last (EOF) token once the
+	  buffer is exhausted.  The same Token is refilled and returned each
+	  time, so it is only valid until the next call; use token(i) for one
+	  to keep.
+
+	  @return the next token.
+	 */
+	public Token getNextToken() throws IOException
+	{
+		if (size == 0)
+		{
+			cursor.symbol = Token.eofSymbol ;
+			cursor.text = "" ;
+			cursor.lineNumber = 0 ;
+			cursor.id = -1 ;
+			return cursor ;
+		}
+		int i = (position >= size) ? size - 1 : position++ ;
+		cursor.symbol = symbols[i] ;
+		cursor.text = string(i) ;
+		cursor.lineNumber = lines[i] ;
+		cursor.id = ids[i] ;
+		return cursor ;
+	} // end of method getNextToken
+
+	/** Lexes a whole source into a new buffer.
+
+	  @param lex The lexical analyser to drain.
+	  @return A buffer holding every token up to and including EOF.
+	  @throws IOException in the event that the source cannot be read.
+	 */
+	public static TokenBuffer readAll(LexicalAnalyser lex) throws IOException
+	{
+		TokenBuffer buffer = new TokenBuffer() ;
+		do
+		{
+			if (lex.fill(buffer, initialCapacity) == 0)
+				throw new IllegalStateException("pushed source not finished") ;
+		}
+		while (buffer.symbol(buffer.size() - 1) != Token.eofSymbol) ;
+		return buffer ;
+	} // end of method readAll
+
+	/** Reads a whole source into a new buffer, a token at a time.
+
+	  @param source The source of tokens to drain.
+	  @return A buffer holding every token up to and including EOF.
+	  @throws IOException in the event that the source cannot be read.
+	 */
+	public static TokenBuffer readAll(TokenSource source) throws IOException
+	{
+		TokenBuffer buffer = new TokenBuffer() ;
+		Token t ;
+		do
+		{
+			t = source.getNextToken() ;
+			buffer.add(t.symbol, t.text, t.lineNumber, t.id) ;
+		}
+		while (t.symbol != Token.eofSymbol) ;
+		return buffer ;
+	} // end of method readAll
+} // end of class TokenBuffer
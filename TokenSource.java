@@ -0,0 +1,19 @@
+
+/**
+ *
+ * A supply of tokens for a syntax analyser to consume, one at a time.
+ *
+ **/
+
+import java.io.* ;
+
+public interface TokenSource
+{
+	/** Returns the next token.  Once the source is exhausted every call
+	  returns an EOF token.
+
+	  @throws IOException in the event that the source cannot be read.
+	  @return the next token.
+	 */
+	public Token getNextToken() throws IOException ;
+} // end of interface TokenSource
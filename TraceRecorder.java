@@ -0,0 +1,125 @@
+
+/**
+ *
+ * Records the trace events of a parse, or part of one, so that they can be
+ * replayed into another sink later, as often as needed and at a different
+ * depth, without parsing again.  Tokens are kept by reference, so a token
+ * whose line number changes is replayed with its new line.
+ *
+ **/
+
+import java.util.* ;
+
+public class TraceRecorder extends AbstractTraceSink
+{
+	/* The kinds of event recorded. */
+	private static final byte indentEvent = 0,
+			terminalEvent = 1,
+			commenceEvent = 2,
+			finishEvent = 3,
+			successEvent = 4,
+			textEvent = 5 ;
+
+	/* One entry per event: its kind, its depth if an indent, and its token or name otherwise. */
+	private byte[] kinds = new byte[64] ;
+	private int[] depths = new int[64] ;
+	private Object[] arguments = new Object[64] ;
+	/** The number of events recorded. */
+	private int size ;
+
+	/** Appends an event, growing the arrays if need be. */
+	private void record(byte kind, int depth, Object argument)
+	{
+		if (size == kinds.length)
+		{
+			kinds = Arrays.copyOf(kinds, size * 2) ;
+			depths = Arrays.copyOf(depths, size * 2) ;
+			arguments = Arrays.copyOf(arguments, size * 2) ;
+		}
+		kinds[size] = kind ;
+		depths[size] = depth ;
+		arguments[size] = argument ;
+		size++ ;
+	} // end of method record
+
+	/** Records text copied into the trace as it stands, such as by insertText(). */
+	protected void append(String s)
+	{
+		record(textEvent, 0, s) ;
+	} // end of method append
+
+	protected void append(char c)
+	{
+		append(String.valueOf(c)) ;
+	} // end of method append
+
+	public void indent(int depth)
+	{
+		record(indentEvent, depth, null) ;
+	} // end of method indent
+
+	public void insertTerminal(Token token)
+	{
+		record(terminalEvent, 0, token) ;
+	} // end of method insertTerminal
+
+	public void commenceNonterminal(String name)
+	{
+		record(commenceEvent, 0, name) ;
+	} // end of method commenceNonterminal
+
+	public void finishNonterminal(String name)
+	{
+		record(finishEvent, 0, name) ;
+	} // end of method finishNonterminal
+
+	public void reportSuccess()
+	{
+		record(successEvent, 0, null) ;
+	} // end of method reportSuccess
+
+	/** @return The number of events recorded. */
+	public int size()
+	{
+		return size ;
+	} // end of method size
+
+	/** Forgets every event recorded. */
+	public void clear()
+	{
+		Arrays.fill(arguments, 0, size, null) ;
+		size = 0 ;
+	} // end of method clear
+
+	/** Sends every event recorded to another sink, in order.
+
+	  @param sink Where the events go.
+	  @param depthOffset The number of tabs added to every indentation.
+	 */
+	public void replay(AbstractTraceSink sink, int depthOffset)
+	{
+		for (int i = 0 ; i < size ; i++)
+		{
+			switch (kinds[i])
+			{
+				case indentEvent :
+					sink.indent(depths[i] + depthOffset) ;
+					break ;
+				case terminalEvent :
+					sink.insertTerminal((Token) arguments[i]) ;
+					break ;
+				case commenceEvent :
+					sink.commenceNonterminal((String) arguments[i]) ;
+					break ;
+				case finishEvent :
+					sink.finishNonterminal((String) arguments[i]) ;
+					break ;
+				case textEvent :
+					sink.insertText((String) arguments[i]) ;
+					break ;
+				default :
+					sink.reportSuccess() ;
+			}
+		}
+	} // end of method replay
+} // end of class TraceRecorder
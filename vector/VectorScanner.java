@@ -0,0 +1,92 @@
+
+/**
+ *
+ * A ByteScanner that tests as many bytes at once as the processor's
+ * vector registers hold, through the incubating Vector API.  It is kept
+ * apart from the other sources, as it only builds and runs with the
+ * jdk.incubator.vector module added:
+ *
+ *   javac --add-modules jdk.incubator.vector -d . vector/VectorScanner.java
+ *   java --add-modules jdk.incubator.vector Compile
+ *
+ * or make vector and make run-vector.  Where it is missing, or the module
+ * is not added, the lexer uses ByteScanner's scalar code instead.
+ *
+ **/
+
+import java.nio.* ;
+import jdk.incubator.vector.* ;
+
+public class VectorScanner extends ByteScanner
+{
+	/** As wide as the processor handles well; loading the class fails here if the module is missing. */
+	private static final VectorSpecies<Byte> species = ByteVector.SPECIES_PREFERRED ;
+
+	private static ByteVector load(ByteBuffer bytes, int i)
+	{
+		return ByteVector.fromByteBuffer(species, bytes, i, ByteOrder.nativeOrder()) ;
+	} // end of method load
+
+	public int skipBlanks(ByteBuffer bytes, int from, int to)
+	{
+		int i = from ;
+		for ( ; i + species.length() <= to ; i += species.length())
+		{
+			ByteVector v = load(bytes, i) ;
+			VectorMask<Byte> other = v.compare(VectorOperators.NE, (byte) ' ')
+					.and(v.compare(VectorOperators.NE, (byte) '\t')) ;
+			if (other.anyTrue())
+				return i + other.firstTrue() ;
+		}
+		return super.skipBlanks(bytes, i, to) ;
+	} // end of method skipBlanks
+
+	public int findLineEnd(ByteBuffer bytes, int from, int to)
+	{
+		int i = from ;
+		for ( ; i + species.length() <= to ; i += species.length())
+		{
+			ByteVector v = load(bytes, i) ;
+			VectorMask<Byte> end = v.compare(VectorOperators.EQ, (byte) '\n')
+					.or(v.compare(VectorOperators.EQ, (byte) '\r')) ;
+			if (end.anyTrue())
+				return i + end.firstTrue() ;
+		}
+		return super.findLineEnd(bytes, i, to) ;
+	} // end of method findLineEnd
+
+	public int spanWord(ByteBuffer bytes, int from, int to)
+	{
+		int i = from ;
+		for ( ; i + species.length() <= to ; i += species.length())
+		{
+			ByteVector v = load(bytes, i) ;
+			// folded to lower case; bytes over 0x7f are negative, so match neither range
+			ByteVector lower = v.or((byte) 0x20) ;
+			VectorMask<Byte> other = lower.compare(VectorOperators.GE, (byte) 'a')
+					.and(lower.compare(VectorOperators.LE, (byte) 'z'))
+					.or(digits(v))
+					.not() ;
+			if (other.anyTrue())
+				return i + other.firstTrue() ;
+		}
+		return super.spanWord(bytes, i, to) ;
+	} // end of method spanWord
+
+	public int spanDigits(ByteBuffer bytes, int from, int to)
+	{
+		int i = from ;
+		for ( ; i + species.length() <= to ; i += species.length())
+		{
+			VectorMask<Byte> other = digits(load(bytes, i)).not() ;
+			if (other.anyTrue())
+				return i + other.firstTrue() ;
+		}
+		return super.spanDigits(bytes, i, to) ;
+	} // end of method spanDigits
+
+	private static VectorMask<Byte> digits(ByteVector v)
+	{
+		return v.compare(VectorOperators.GE, (byte) '0').and(v.compare(VectorOperators.LE, (byte) '9')) ;
+	} // end of method digits
+} // end of class VectorScanner